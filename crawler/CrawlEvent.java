@@ -0,0 +1,20 @@
+package info.kgeorgiy.ja.televnoi.crawler;
+
+import java.io.IOException;
+
+/**
+ * Event of streaming crawl: page was downloaded or failed. Page, which links couldn't be extracted,
+ * has both events
+ *
+ * @param url   url of page
+ * @param error error of page, {@code null} if page was downloaded
+ * @author Artem Televnoy
+ */
+public record CrawlEvent(String url, IOException error) {
+    /**
+     * @return {@code true} if page was downloaded
+     */
+    public boolean isDownloaded() {
+        return error == null;
+    }
+}
@@ -0,0 +1,292 @@
+package info.kgeorgiy.ja.televnoi.crawler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import info.kgeorgiy.java.advanced.crawler.Result;
+
+/**
+ * Disk state of crawl in directory, so crawl isn't limited by heap and can be resumed after restart.
+ * Urls of level are appended to frontier log, downloaded pages and errors are appended to own logs,
+ * found and processed urls are kept in {@link FingerprintSet} indexes.
+ * Page is marked processed only after its links are in frontier, so after restart only pages
+ * which were in progress are downloaded again.
+ * Urls are compared by 64-bit fingerprints, so url, which fingerprint collides with found url, is skipped;
+ * chance of it is about {@code n^2 / 2^65} for {@code n} urls.
+ * Directory is locked while store is open, so it's used by one crawl at a time
+ *
+ * @author Artem Televnoy
+ */
+class CrawlStore implements AutoCloseable {
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+    private static final String LOCK = "crawl.lock";
+    private static final String META = "crawl.meta";
+    private static final String VISITED = "visited.idx";
+    private static final String DONE = "done.idx";
+    private static final String DOWNLOADED = "downloaded.log";
+    private static final String ERRORS = "errors.log";
+    private static final String FRONTIER = "frontier-";
+    private static final String LOG = ".log";
+
+    private final Path dir;
+    private final FileLock lock;
+    private final FingerprintSet visited;
+    private final FingerprintSet done;
+    private final FileChannel downloaded;
+    private final FileChannel errors;
+    private final Map<Integer, FileChannel> frontiers = new HashMap<>();
+
+    private CrawlStore(final Path dir, final FileLock lock) throws IOException {
+        this.dir = dir;
+        this.lock = lock;
+        visited = new FingerprintSet(dir.resolve(VISITED));
+        done = new FingerprintSet(dir.resolve(DONE));
+        downloaded = openLog(dir.resolve(DOWNLOADED));
+        errors = openLog(dir.resolve(ERRORS));
+    }
+
+    /**
+     * Open state of crawl in {@code dir}. State of other crawl in {@code dir} is removed,
+     * other files in {@code dir} aren't touched
+     *
+     * @param dir      directory of state, created if it doesn't exist
+     * @param url      start url
+     * @param depth    download depth
+     * @param excludes excluded substrings
+     * @return store with state of crawl
+     * @throws IOException if state couldn't be read or created or {@code dir} is used by other crawl
+     */
+    static CrawlStore open(final Path dir, final String url, final int depth, final Set<String> excludes)
+            throws IOException {
+        Files.createDirectories(dir);
+        final FileLock lock = lock(dir);
+        try {
+            final List<String> meta = new ArrayList<>(List.of(url, Integer.toString(depth)));
+            meta.addAll(new TreeSet<>(excludes));
+
+            final Path metaFile = dir.resolve(META);
+            if (!Files.exists(metaFile) || !Files.readAllLines(metaFile, CHARSET).equals(meta)) {
+                clear(dir);
+                Files.write(metaFile, meta, CHARSET);
+            }
+            return new CrawlStore(dir, lock);
+        } catch (IOException | RuntimeException e) {
+            lock.channel().close();
+            throw e;
+        }
+    }
+
+    // file lock belongs to process, so lock of other crawl of this process is found as overlapping
+    private static FileLock lock(final Path dir) throws IOException {
+        final FileChannel channel = FileChannel.open(dir.resolve(LOCK),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            final FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return lock;
+            }
+        } catch (OverlappingFileLockException ignored) {
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        throw new IOException("Crawl state in " + dir + " is used by other crawl");
+    }
+
+    private static void clear(final Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                if (isStoreFile(file.getFileName().toString())) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static boolean isStoreFile(final String name) {
+        return switch (name) {
+            case META, VISITED, DONE, DOWNLOADED, ERRORS,
+                 VISITED + FingerprintSet.TMP, DONE + FingerprintSet.TMP -> true;
+            default -> {
+                final int end = name.length() - LOG.length();
+                yield name.startsWith(FRONTIER) && name.endsWith(LOG) && end > FRONTIER.length()
+                        && name.substring(FRONTIER.length(), end).chars().allMatch(Character::isDigit);
+            }
+        };
+    }
+
+    // tail of record, which was written partly before crash, is dropped
+    private static FileChannel openLog(final Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final ByteBuffer one = ByteBuffer.allocate(1);
+        long end = channel.size();
+        while (end > 0 && channel.read(one.clear(), end - 1) == 1 && one.get(0) != '\n') {
+            end--;
+        }
+        channel.truncate(end);
+        channel.position(end);
+        return channel;
+    }
+
+    private static void append(final FileChannel channel, final String record) throws IOException {
+        final ByteBuffer buffer = CHARSET.encode(record + '\n');
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private Path frontier(final int level) {
+        return dir.resolve(FRONTIER + level + LOG);
+    }
+
+    /**
+     * Add url to frontier of {@code level}, if it wasn't found before
+     *
+     * @param level level of url
+     * @param url   found url
+     * @throws IOException if frontier couldn't be written
+     */
+    synchronized void push(final int level, final String url) throws IOException {
+        if (!visited.contains(url)) {
+            FileChannel channel = frontiers.get(level);
+            if (channel == null) {
+                channel = openLog(frontier(level));
+                frontiers.put(level, channel);
+            }
+            append(channel, url);
+            visited.add(url);
+        }
+    }
+
+    /**
+     * Call {@code action} for every url of frontier of {@code level}, which isn't processed yet.
+     * Urls are read from disk one by one
+     *
+     * @param level  read level
+     * @param action action for url
+     * @throws IOException if frontier couldn't be read
+     */
+    void forEachPending(final int level, final Consumer<String> action) throws IOException {
+        final Path file = frontier(level);
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        synchronized (this) {
+            final FileChannel channel = frontiers.remove(level);
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, CHARSET)) {
+            String url;
+            while ((url = reader.readLine()) != null) {
+                if (!done.contains(url)) {
+                    action.accept(url);
+                }
+            }
+        }
+    }
+
+    /**
+     * Save downloaded page
+     *
+     * @param url url of page
+     * @throws IOException if log couldn't be written
+     */
+    synchronized void downloaded(final String url) throws IOException {
+        append(downloaded, url);
+    }
+
+    /**
+     * Save error of page with its type and message
+     *
+     * @param url url of page
+     * @param e   error
+     * @throws IOException if log couldn't be written
+     */
+    synchronized void failed(final String url, final IOException e) throws IOException {
+        final String message = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+        append(errors, url + '\t' + e.getClass().getName() + '\t' + message.replace('\n', ' ').replace('\r', ' '));
+    }
+
+    /**
+     * Mark page processed: it's downloaded or failed and its links are in frontier
+     *
+     * @param url url of page
+     * @throws IOException if index couldn't be written
+     */
+    void done(final String url) throws IOException {
+        done.add(url);
+    }
+
+    /**
+     * Read result of crawl, errors of previous runs are restored with saved message and type,
+     * if type has public constructor from message, and as {@link IOException} otherwise
+     *
+     * @return downloaded pages and errors
+     * @throws IOException if logs couldn't be read
+     */
+    synchronized Result result() throws IOException {
+        // page, which was in progress before restart, may be saved twice
+        final Set<String> pages = new LinkedHashSet<>(Files.readAllLines(dir.resolve(DOWNLOADED), CHARSET));
+        final Map<String, IOException> errorMap = new HashMap<>();
+        for (final String line : Files.readAllLines(dir.resolve(ERRORS), CHARSET)) {
+            final String[] parts = line.split("\t", 3);
+            errorMap.put(parts[0], parts.length == 3 ? restore(parts[1], parts[2]) : new IOException(parts[1]));
+        }
+        return new Result(new ArrayList<>(pages), errorMap);
+    }
+
+    // class is loaded without initialization, only subclass of IOException is initialized and created
+    private static IOException restore(final String type, final String message) {
+        try {
+            final Class<?> token = Class.forName(type, false, CrawlStore.class.getClassLoader());
+            if (IOException.class.isAssignableFrom(token)) {
+                return token.asSubclass(IOException.class).getConstructor(String.class).newInstance(message);
+            }
+        } catch (ClassNotFoundException | LinkageError | NoSuchMethodException | InstantiationException
+                 | IllegalAccessException | InvocationTargetException e) {
+            // error is restored as IOException
+        }
+        return new IOException(message);
+    }
+
+    /**
+     * Write indexes to disk and close files
+     *
+     * @throws IOException if files couldn't be closed
+     */
+    @Override
+    synchronized public void close() throws IOException {
+        for (final FileChannel channel : frontiers.values()) {
+            channel.close();
+        }
+        downloaded.close();
+        errors.close();
+        visited.close();
+        done.close();
+        lock.channel().close();
+    }
+}
@@ -0,0 +1,115 @@
+package info.kgeorgiy.ja.televnoi.crawler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton for checking that url contains one of excluded substrings,
+ * check takes time linear in url length regardless of count of substrings
+ *
+ * @author Artem Televnoy
+ */
+class ExcludeMatcher {
+    // transitions of state are sorted by char for binary search
+    private final char[][] chars;
+    private final int[][] next;
+    private final int[] fail;
+    private final boolean[] terminal;
+
+    /**
+     * Constructor
+     *
+     * @param excludes excluded substrings
+     */
+    ExcludeMatcher(final Collection<String> excludes) {
+        final List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        final List<Boolean> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(false);
+
+        for (final String exclude : excludes) {
+            int state = 0;
+            for (int i = 0; i < exclude.length(); i++) {
+                final Integer to = trie.get(state).get(exclude.charAt(i));
+                if (to == null) {
+                    trie.get(state).put(exclude.charAt(i), trie.size());
+                    state = trie.size();
+                    trie.add(new TreeMap<>());
+                    ends.add(false);
+                } else {
+                    state = to;
+                }
+            }
+            ends.set(state, true);
+        }
+
+        final int size = trie.size();
+        chars = new char[size][];
+        next = new int[size][];
+        terminal = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            final TreeMap<Character, Integer> edges = trie.get(i);
+            chars[i] = new char[edges.size()];
+            next[i] = new int[edges.size()];
+            int j = 0;
+            for (final var edge : edges.entrySet()) {
+                chars[i][j] = edge.getKey();
+                next[i][j] = edge.getValue();
+                j++;
+            }
+            terminal[i] = ends.get(i);
+        }
+
+        // failure link of state is the longest proper suffix of its string, which is in trie
+        fail = new int[size];
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (final int child : next[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            terminal[state] |= terminal[fail[state]];
+            for (int j = 0; j < chars[state].length; j++) {
+                final int child = next[state][j];
+                fail[child] = step(fail[state], chars[state][j]);
+                queue.add(child);
+            }
+        }
+    }
+
+    private int step(int state, final char c) {
+        while (true) {
+            final int index = Arrays.binarySearch(chars[state], c);
+            if (index >= 0) {
+                return next[state][index];
+            } else if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    /**
+     * @param url checked url
+     * @return {@code true} if {@code url} contains one of excluded substrings
+     */
+    boolean matches(final String url) {
+        if (terminal[0]) {
+            return true;
+        }
+
+        int state = 0;
+        for (int i = 0; i < url.length(); i++) {
+            state = step(state, url.charAt(i));
+            if (terminal[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,162 @@
+package info.kgeorgiy.ja.televnoi.crawler;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Set of 64-bit string fingerprints in memory-mapped file: open addressing table,
+ * doubled when it's half full. Set survives restart of process and doesn't take heap.
+ * Different strings with the same fingerprint are considered equal
+ *
+ * @author Artem Televnoy
+ */
+class FingerprintSet implements AutoCloseable {
+    /**
+     * Suffix of file, in which grown table is filled
+     */
+    static final String TMP = ".tmp";
+
+    private static final int HEADER = 2 * Long.BYTES;
+    private static final long MIN_CAPACITY = 1 << 12;
+    private static final long MAX_CAPACITY = (Integer.MAX_VALUE - HEADER) / Long.BYTES;
+
+    private final Path file;
+    private FileChannel channel;
+    private MappedByteBuffer table;
+    private long capacity;
+    private long size;
+
+    /**
+     * Open set stored in {@code file} or create empty one
+     *
+     * @param file file of set
+     * @throws IOException if file couldn't be opened or mapped or it isn't a valid set
+     */
+    FingerprintSet(final Path file) throws IOException {
+        this.file = file;
+        final boolean exists = Files.exists(file) && Files.size(file) > HEADER;
+        map(file, exists ? 0 : MIN_CAPACITY);
+    }
+
+    private void map(final Path path, final long newCapacity) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (newCapacity == 0) {
+            table = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            capacity = table.getLong(0);
+            size = table.getLong(Long.BYTES);
+            if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY || size < 0 || size > capacity
+                    || channel.size() < HEADER + capacity * Long.BYTES) {
+                channel.close();
+                throw new IOException("Invalid fingerprint set in " + path);
+            }
+        } else {
+            table = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + newCapacity * Long.BYTES);
+            capacity = newCapacity;
+            size = 0;
+            table.putLong(0, capacity);
+            table.putLong(Long.BYTES, size);
+        }
+    }
+
+    /**
+     * 64-bit fingerprint of string, never {@code 0}
+     *
+     * @param s string
+     * @return fingerprint
+     */
+    static long fingerprint(final String s) {
+        // FNV-1a with murmur finalizer
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private long slot(final long fingerprint) {
+        long index = (fingerprint & Long.MAX_VALUE) % capacity;
+        while (true) {
+            final long value = table.getLong(HEADER + (int) index * Long.BYTES);
+            if (value == 0 || value == fingerprint) {
+                return index;
+            }
+            index = index + 1 == capacity ? 0 : index + 1;
+        }
+    }
+
+    /**
+     * @param s string
+     * @return {@code true} if fingerprint of {@code s} is in set
+     */
+    synchronized boolean contains(final String s) {
+        final long fingerprint = fingerprint(s);
+        return table.getLong(HEADER + (int) slot(fingerprint) * Long.BYTES) == fingerprint;
+    }
+
+    /**
+     * Add fingerprint of {@code s}
+     *
+     * @param s string
+     * @return {@code true} if fingerprint wasn't in set
+     * @throws IOException if table couldn't be grown
+     */
+    synchronized boolean add(final String s) throws IOException {
+        final long fingerprint = fingerprint(s);
+        final int offset = HEADER + (int) slot(fingerprint) * Long.BYTES;
+        if (table.getLong(offset) == fingerprint) {
+            return false;
+        }
+
+        table.putLong(offset, fingerprint);
+        table.putLong(Long.BYTES, ++size);
+        if (2 * size > capacity) {
+            grow();
+        }
+        return true;
+    }
+
+    // new table is filled in separate file and replaces old one, so set is never half written
+    private void grow() throws IOException {
+        if (capacity * 2 > MAX_CAPACITY) {
+            throw new IOException("Too many fingerprints in " + file);
+        }
+
+        final MappedByteBuffer old = table;
+        final long oldCapacity = capacity;
+        final FileChannel oldChannel = channel;
+        final Path tmp = file.resolveSibling(file.getFileName() + TMP);
+        Files.deleteIfExists(tmp);
+
+        map(tmp, oldCapacity * 2);
+        for (long i = 0; i < oldCapacity; i++) {
+            final long value = old.getLong(HEADER + (int) i * Long.BYTES);
+            if (value != 0) {
+                table.putLong(HEADER + (int) slot(value) * Long.BYTES, value);
+                size++;
+            }
+        }
+        table.putLong(Long.BYTES, size);
+        table.force();
+        oldChannel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write table to disk and close file
+     *
+     * @throws IOException if file couldn't be closed
+     */
+    @Override
+    synchronized public void close() throws IOException {
+        table.force();
+        channel.close();
+    }
+}
@@ -1,22 +1,37 @@
 package info.kgeorgiy.ja.televnoi.crawler;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 import info.kgeorgiy.java.advanced.crawler.CachingDownloader;
 import info.kgeorgiy.java.advanced.crawler.Document;
 import info.kgeorgiy.java.advanced.crawler.Downloader;
 import info.kgeorgiy.java.advanced.crawler.NewCrawler;
 import info.kgeorgiy.java.advanced.crawler.Result;
+import info.kgeorgiy.java.advanced.crawler.URLUtils;
 
 /**
  * Class for recursive walking on sites
@@ -25,10 +40,19 @@ import info.kgeorgiy.java.advanced.crawler.Result;
  */
 public class WebCrawler implements NewCrawler {
     private final static int DEFAULT_COUNT = 1;
+    private final static int STORED_IN_PROGRESS = 1024;
+    private final static int PUBLISH_BUFFER = 256;
+    private final static int PUBLISH_WAIT = 100;
 
     private final Downloader downloader;
     private final ExecutorService pagesLoadPool;
     private final ExecutorService linkLoadPool;
+    private final int perHost;
+    private final boolean pipelined;
+    private final Path store;
+    private final ConcurrentMap<String, HostQueue> hosts;
+    private final Phaser crawls;
+    private volatile boolean closed;
 
     /**
      * Constructor
@@ -36,13 +60,63 @@ public class WebCrawler implements NewCrawler {
      * @param downloader  {@link Downloader} for downloading pages
      * @param downloaders count of parallel downloaders
      * @param extractors  count of parallel {@link Document#extractLinks()} on pages
-     * @param perHost     count of parallel download of one Host (unused)
-     * @throws IllegalArgumentException if {@code extractors} or {@code downloaders} aren't positive
+     * @param perHost     count of parallel download of one Host
+     * @throws IllegalArgumentException if {@code extractors}, {@code downloaders} or {@code perHost} aren't positive
      * @throws NullPointerException     if {@code downloader} was null
      */
-    @SuppressWarnings("unused")
     public WebCrawler(final Downloader downloader, final int downloaders, final int extractors, final int perHost) {
+        this(downloader, downloaders, extractors, perHost, false);
+    }
+
+    /**
+     * Constructor with crawl mode. In pipelined mode links of page are scheduled as soon as they're extracted,
+     * without waiting for the whole depth level, result is the same as in level by level mode
+     *
+     * @param downloader  {@link Downloader} for downloading pages
+     * @param downloaders count of parallel downloaders
+     * @param extractors  count of parallel {@link Document#extractLinks()} on pages
+     * @param perHost     count of parallel download of one Host
+     * @param pipelined   {@code true} for pipelined mode, {@code false} for level by level mode
+     * @throws IllegalArgumentException if {@code extractors}, {@code downloaders} or {@code perHost} aren't positive
+     * @throws NullPointerException     if {@code downloader} was null
+     */
+    public WebCrawler(final Downloader downloader, final int downloaders, final int extractors, final int perHost,
+                      final boolean pipelined) {
+        this(downloader, downloaders, extractors, perHost, pipelined, null);
+    }
+
+    /**
+     * Constructor with persistent crawl state. Frontier, found urls, downloaded pages and errors are kept
+     * in {@code store} directory instead of memory, so crawl isn't limited by heap. If crawl with the same
+     * url, depth and excludes was interrupted, it's resumed and processed pages aren't downloaded again.
+     * Crawl is level by level, only one crawl may use directory at the same time: directory is locked
+     * and download, which finds it locked by other crawl, fails
+     *
+     * @param downloader  {@link Downloader} for downloading pages
+     * @param downloaders count of parallel downloaders
+     * @param extractors  count of parallel {@link Document#extractLinks()} on pages
+     * @param perHost     count of parallel download of one Host
+     * @param store       directory of crawl state
+     * @throws IllegalArgumentException if {@code extractors}, {@code downloaders} or {@code perHost} aren't positive
+     * @throws NullPointerException     if {@code downloader} or {@code store} was null
+     */
+    public WebCrawler(final Downloader downloader, final int downloaders, final int extractors, final int perHost,
+                      final Path store) {
+        this(downloader, downloaders, extractors, perHost, false,
+                Objects.requireNonNull(store, "Store must be non null"));
+    }
+
+    private WebCrawler(final Downloader downloader, final int downloaders, final int extractors, final int perHost,
+                       final boolean pipelined, final Path store) {
+        if (perHost <= 0) {
+            throw new IllegalArgumentException("perHost must be positive");
+        }
         this.downloader = Objects.requireNonNull(downloader, "Downloader must be non null");
+        this.perHost = perHost;
+        this.pipelined = pipelined;
+        this.store = store;
+        hosts = new ConcurrentHashMap<>();
+        crawls = new Phaser(1);
         pagesLoadPool = Executors.newFixedThreadPool(downloaders);
         linkLoadPool = Executors.newFixedThreadPool(extractors);
     }
@@ -56,88 +130,296 @@ public class WebCrawler implements NewCrawler {
      * @return {@link Result} of downloading
      * @throws IllegalStateException    if threads was already closed
      * @throws IllegalArgumentException if depth isn't positive
+     * @throws UncheckedIOException     if crawl state couldn't be read or saved or it's used by other crawl
      */
     @Override
     public Result download(String url, int depth, Set<String> excludes) {
-        if (pagesLoadPool.isShutdown()) {
+        return crawl(url, depth, excludes, null, () -> false);
+    }
+
+    /**
+     * Download page {@code url} on {@code depth} and pass every downloaded page and error to {@code consumer}
+     * as soon as it happens instead of collecting them. Consumer is called by crawler threads one at a time,
+     * while it works downloaders wait, so crawl doesn't outrun consumer. In persistent mode only pages
+     * processed by this call are passed
+     *
+     * @param url      start <a href="http://tools.ietf.org/html/rfc3986">URL</a>.
+     * @param depth    download depth.
+     * @param excludes URLs containing one of given substrings are ignored
+     * @param consumer consumer of events
+     * @throws IllegalStateException    if threads was already closed
+     * @throws IllegalArgumentException if depth isn't positive
+     * @throws UncheckedIOException     if crawl state couldn't be read or saved or it's used by other crawl
+     */
+    public void download(final String url, final int depth, final Set<String> excludes,
+                         final Consumer<CrawlEvent> consumer) {
+        crawl(url, depth, excludes, Objects.requireNonNull(consumer, "Consumer must be non null"), () -> false);
+    }
+
+    /**
+     * Publisher of events of crawl like {@link #download(String, int, Set, Consumer)}. Every subscriber starts
+     * own crawl, events are buffered up to subscriber demand, when buffer is full downloaders wait.
+     * Crawl is stopped, when subscription is cancelled. Errors of crawl are passed to
+     * {@link Flow.Subscriber#onError}. {@link #close()} doesn't wait for demand:
+     * rest of events is dropped and subscriber gets {@link CancellationException}
+     *
+     * @param url      start <a href="http://tools.ietf.org/html/rfc3986">URL</a>.
+     * @param depth    download depth.
+     * @param excludes URLs containing one of given substrings are ignored
+     * @return publisher of events
+     * @throws IllegalArgumentException if depth isn't positive
+     */
+    public Flow.Publisher<CrawlEvent> publish(final String url, final int depth, final Set<String> excludes) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be positive");
+        }
+
+        return subscriber -> {
+            final SubmissionPublisher<CrawlEvent> publisher =
+                    new SubmissionPublisher<>(ForkJoinPool.commonPool(), PUBLISH_BUFFER);
+            publisher.subscribe(subscriber);
+            Thread.ofVirtual().start(() -> {
+                try {
+                    // crawl stops when subscriber cancels subscription
+                    crawl(url, depth, excludes, event -> offer(publisher, event),
+                            () -> publisher.isClosed() || !publisher.hasSubscribers());
+                    if (closed) {
+                        publisher.closeExceptionally(new CancellationException("crawler was closed"));
+                    } else {
+                        publisher.close();
+                    }
+                } catch (RuntimeException e) {
+                    publisher.closeExceptionally(e);
+                }
+            });
+        };
+    }
+
+    // waits for demand until crawler is closed or subscription is cancelled, then events are dropped
+    private void offer(final SubmissionPublisher<CrawlEvent> publisher, final CrawlEvent event) {
+        while (!closed && publisher.hasSubscribers()
+                && publisher.offer(event, PUBLISH_WAIT, TimeUnit.MILLISECONDS, (subscriber, e) -> false) < 0) {
+            // retry until there is demand
+        }
+    }
+
+    // crawl is party of crawls, so threads aren't closed while it submits tasks
+    private Result crawl(final String url, final int depth, final Set<String> excludes,
+                         final Consumer<CrawlEvent> listener, final BooleanSupplier cancelled) {
+        if (closed) {
             throw new IllegalStateException("illegal operation, object was already close");
         } else if (depth < 0) {
             throw new IllegalArgumentException("depth must be positive");
+        } else if (crawls.register() < 0) {
+            throw new IllegalStateException("illegal operation, object was already close");
         }
 
-        return new MyResult().getRes(url, depth, excludes);
+        try {
+            return new MyResult(excludes, listener, cancelled).getRes(url, depth);
+        } finally {
+            crawls.arriveAndDeregister();
+        }
     }
 
     /**
-     * Close all working threads
+     * Close all working threads. Crawls in progress don't download rest of pages and return what was done,
+     * subscriptions of {@link #publish} are cancelled
      *
      * @throws IllegalStateException if threads was already closed
      * @throws RuntimeException      if {@link ExecutorService#close} throw this
      */
     @Override
     public void close() {
-        if (pagesLoadPool.isShutdown()) {
+        if (closed) {
             throw new IllegalStateException("already close");
         }
 
+        closed = true;
+        crawls.awaitAdvance(crawls.arriveAndDeregister());
         pagesLoadPool.close();
         linkLoadPool.close();
     }
 
+    // downloads of host over limit wait in its queue instead of occupying downloader threads,
+    // queue is changed only inside compute of its key and is removed when it has no downloads
+    private static class HostQueue {
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+        private int active;
+    }
+
+    private void submit(final String host, final Runnable task) {
+        hosts.compute(host, (h, queue) -> {
+            final HostQueue hostQueue = queue == null ? new HostQueue() : queue;
+            if (hostQueue.active < perHost) {
+                hostQueue.active++;
+                pagesLoadPool.submit(() -> run(host, task));
+            } else {
+                hostQueue.waiting.add(task);
+            }
+            return hostQueue;
+        });
+    }
+
+    private void run(final String host, final Runnable task) {
+        try {
+            task.run();
+        } finally {
+            finish(host);
+        }
+    }
+
+    private void finish(final String host) {
+        hosts.compute(host, (h, queue) -> {
+            final Runnable next = queue.waiting.poll();
+            if (next != null) {
+                pagesLoadPool.submit(() -> run(host, next));
+                return queue;
+            }
+            return --queue.active == 0 ? null : queue;
+        });
+    }
+
+    @FunctionalInterface
+    private interface IOAction {
+        void run() throws IOException;
+    }
+
+    private enum State {
+        NEW, LOADING, EXTRACTING, DONE, FAILED
+    }
+
+    private static class Page {
+        private final String url;
+        private int depth = Integer.MAX_VALUE;
+        private State state = State.NEW;
+        private List<String> links;
+        private Document document;
+
+        public Page(final String url) {
+            this.url = url;
+        }
+    }
+
     private class MyResult {
         private final ConcurrentMap<String, IOException> errMap;
         private final Set<String> resPages;
+        private final Set<String> excluded;
+        private final ExcludeMatcher excludes;
+        // events are passed to listener instead of collecting, if it isn't null
+        private final Consumer<CrawlEvent> listener;
+        // crawl is stopped when crawler is closed or it's cancelled, rest of pages isn't downloaded
+        private final BooleanSupplier cancelled;
 
-        public MyResult() {
+        public MyResult(final Set<String> excludes, final Consumer<CrawlEvent> listener,
+                        final BooleanSupplier cancelled) {
             errMap = new ConcurrentHashMap<>();
-            resPages = new ConcurrentSkipListSet<>();
+            resPages = ConcurrentHashMap.newKeySet();
+            excluded = excludes;
+            this.excludes = new ExcludeMatcher(excludes);
+            this.listener = listener;
+            this.cancelled = cancelled;
+        }
+
+        private boolean stopped() {
+            return closed || cancelled.getAsBoolean();
+        }
+
+        private void downloaded(final String url) {
+            if (listener == null) {
+                resPages.add(url);
+            } else {
+                emit(url, null);
+            }
+        }
+
+        private void failed(final String url, final IOException e) {
+            if (listener == null) {
+                errMap.put(url, e);
+            } else {
+                emit(url, e);
+            }
         }
 
-        private Result getRes(final String url, final int depth, final Set<String> excludes) {
-            bfsWalker(url, depth, excludes);
+        synchronized private void emit(final String url, final IOException e) {
+            if (listener != null) {
+                listener.accept(new CrawlEvent(url, e));
+            }
+        }
+
+        private Result getRes(final String url, final int depth) {
+            if (store != null) {
+                try (CrawlStore crawl = CrawlStore.open(store, url, depth, excluded)) {
+                    new StoredWalk(crawl, depth).walk(url);
+                    return listener == null ? crawl.result() : null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Couldn't save crawl state in " + store, e);
+                }
+            } else if (pipelined) {
+                new Pipeline(depth).walk(url);
+            } else {
+                bfsWalker(url, depth);
+            }
             return new Result(new ArrayList<>(resPages), errMap);
         }
 
-        private void bfsWalker(final String url, final int depth, final Set<String> set) {
-            final Set<String> urlsToLoad = new ConcurrentSkipListSet<>();
+        private void bfsWalker(final String url, final int depth) {
+            // url is claimed once, when it's found first, so every level contains only new urls
+            final Set<String> visited = ConcurrentHashMap.newKeySet();
+            final Queue<String> urlsToLoad = new ConcurrentLinkedQueue<>();
             final Phaser depthPhaser = new Phaser(1);
-            urlsToLoad.add(url);
+            claim(url, visited, urlsToLoad);
 
             for (int i = 0; i < depth; i++) {
                 final List<String> urls = new ArrayList<>(urlsToLoad);
                 urlsToLoad.clear();
 
                 for (final String link : urls) {
-                    if (!resPages.contains(link) && !errMap.containsKey(link) && !isIgnored(link, set)) {
-                        addTask(i, depth, link, depthPhaser, urlsToLoad);
-                    }
+                    addTask(i, depth, link, depthPhaser, visited, urlsToLoad);
                 }
 
                 depthPhaser.arriveAndAwaitAdvance();
             }
         }
 
+        private void claim(final String url, final Set<String> visited, final Queue<String> urlsToLoad) {
+            if (!excludes.matches(url) && visited.add(url)) {
+                urlsToLoad.add(url);
+            }
+        }
+
         // :NOTE: jstyle, name i
         private void addTask(
                 final int depth,
                 final int maxDepth,
                 final String str,
                 final Phaser phaser,
-                final Set<String> urlsToLoad
+                final Set<String> visited,
+                final Queue<String> urlsToLoad
         ) {
+            final String host;
+            try {
+                host = URLUtils.getHost(str);
+            } catch (MalformedURLException e) {
+                failed(str, e);
+                return;
+            }
+
             phaser.register();
-            pagesLoadPool.submit(() -> {
+            submit(host, () -> {
                 try {
+                    if (stopped()) {
+                        return;
+                    }
                     final Document doc = downloader.download(str);
-                    resPages.add(str);
+                    downloaded(str);
 
                     if (depth != maxDepth - 1) {
                         phaser.register();
                         linkLoadPool.submit(() -> {
                             try {
-                                urlsToLoad.addAll(doc.extractLinks());
+                                doc.extractLinks().forEach(link -> claim(link, visited, urlsToLoad));
                             } catch (IOException e) {
-                                errMap.put(str, e);
+                                failed(str, e);
                             } finally {
                                 phaser.arriveAndDeregister();
                             }
@@ -145,15 +427,258 @@ public class WebCrawler implements NewCrawler {
                     }
 
                 } catch (IOException e) {
-                    errMap.put(str, e);
+                    failed(str, e);
                 } finally {
                     phaser.arriveAndDeregister();
                 }
             });
         }
 
-        private static boolean isIgnored(final String str, final Set<String> set) {
-            return set.stream().anyMatch(str::contains);
+        // level by level walk, where only pages in progress are in memory, the rest is in store
+        private class StoredWalk {
+            private final CrawlStore crawl;
+            private final int maxDepth;
+            private final Phaser phaser;
+            private final Semaphore inProgress;
+            private final AtomicReference<IOException> failure;
+
+            public StoredWalk(final CrawlStore crawl, final int maxDepth) {
+                this.crawl = crawl;
+                this.maxDepth = maxDepth;
+                phaser = new Phaser(1);
+                inProgress = new Semaphore(STORED_IN_PROGRESS);
+                failure = new AtomicReference<>();
+            }
+
+            private void walk(final String url) throws IOException {
+                if (!excludes.matches(url)) {
+                    crawl.push(0, url);
+                }
+
+                for (int i = 0; i < maxDepth; i++) {
+                    final int depth = i;
+                    try {
+                        crawl.forEachPending(depth, link -> {
+                            inProgress.acquireUninterruptibly();
+                            load(link, depth);
+                        });
+                    } finally {
+                        phaser.arriveAndAwaitAdvance();
+                    }
+
+                    final IOException e = failure.get();
+                    if (e != null) {
+                        throw e;
+                    }
+                }
+            }
+
+            private void load(final String url, final int depth) {
+                phaser.register();
+                final String host;
+                try {
+                    host = URLUtils.getHost(url);
+                } catch (MalformedURLException e) {
+                    save(() -> crawl.failed(url, e));
+                    emit(url, e);
+                    finish(url);
+                    return;
+                }
+
+                submit(host, () -> {
+                    boolean extracting = false;
+                    try {
+                        if (stopped()) {
+                            return;
+                        }
+                        final Document doc = downloader.download(url);
+                        save(() -> crawl.downloaded(url));
+                        emit(url, null);
+
+                        if (depth != maxDepth - 1) {
+                            linkLoadPool.submit(() -> extract(url, doc, depth));
+                            extracting = true;
+                        }
+                    } catch (IOException e) {
+                        save(() -> crawl.failed(url, e));
+                        emit(url, e);
+                    } finally {
+                        if (!extracting) {
+                            finish(url);
+                        }
+                    }
+                });
+            }
+
+            private void extract(final String url, final Document doc, final int depth) {
+                try {
+                    final List<String> links = doc.extractLinks();
+                    save(() -> {
+                        for (final String link : links) {
+                            if (!excludes.matches(link)) {
+                                crawl.push(depth + 1, link);
+                            }
+                        }
+                    });
+                } catch (IOException e) {
+                    save(() -> crawl.failed(url, e));
+                    emit(url, e);
+                } finally {
+                    finish(url);
+                }
+            }
+
+            // page isn't marked processed after failed save or stop, so it's processed again on resume
+            private void finish(final String url) {
+                if (failure.get() == null && !stopped()) {
+                    save(() -> crawl.done(url));
+                }
+                inProgress.release();
+                phaser.arriveAndDeregister();
+            }
+
+            private void save(final IOAction action) {
+                try {
+                    action.run();
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }
+
+        // every url is downloaded once; if it's reached later by shorter path,
+        // its links are scheduled again with the shorter depth
+        private class Pipeline {
+            private final int maxDepth;
+            private final ConcurrentMap<String, Page> pages;
+            private final Phaser phaser;
+
+            public Pipeline(final int maxDepth) {
+                this.maxDepth = maxDepth;
+                pages = new ConcurrentHashMap<>();
+                phaser = new Phaser(1);
+            }
+
+            private void walk(final String url) {
+                visit(url, 0);
+                phaser.arriveAndAwaitAdvance();
+            }
+
+            private void visit(final String url, final int depth) {
+                if (depth >= maxDepth || excludes.matches(url)) {
+                    return;
+                }
+
+                final Page page = pages.computeIfAbsent(url, Page::new);
+                final List<String> links;
+                final MalformedURLException malformed;
+                synchronized (page) {
+                    if (depth >= page.depth) {
+                        return;
+                    }
+                    page.depth = depth;
+
+                    switch (page.state) {
+                        case NEW -> {
+                            page.state = State.LOADING;
+                            malformed = download(page);
+                            links = null;
+                        }
+                        case DONE -> {
+                            if (page.links == null && page.document != null) {
+                                extract(page, page.document);
+                                page.document = null;
+                                return;
+                            }
+                            malformed = null;
+                            links = page.links;
+                        }
+                        // result of loading or extracting is handled with new depth
+                        default -> {
+                            return;
+                        }
+                    }
+                }
+
+                // listener may block, so it's called without lock of page
+                if (malformed != null) {
+                    failed(page.url, malformed);
+                } else {
+                    follow(links, depth);
+                }
+            }
+
+            private void follow(final List<String> links, final int depth) {
+                if (links != null && depth + 1 < maxDepth) {
+                    links.forEach(link -> visit(link, depth + 1));
+                }
+            }
+
+            // called with lock of page, error of url is returned to be reported after lock is released
+            private MalformedURLException download(final Page page) {
+                final String host;
+                try {
+                    host = URLUtils.getHost(page.url);
+                } catch (MalformedURLException e) {
+                    page.state = State.FAILED;
+                    return e;
+                }
+
+                phaser.register();
+                submit(host, () -> {
+                    try {
+                        if (stopped()) {
+                            return;
+                        }
+                        final Document doc = downloader.download(page.url);
+                        downloaded(page.url);
+
+                        synchronized (page) {
+                            page.state = State.DONE;
+                            if (page.depth < maxDepth - 1) {
+                                extract(page, doc);
+                            } else {
+                                // links are needed only if page is reached later by shorter path
+                                page.document = doc;
+                            }
+                        }
+                    } catch (IOException e) {
+                        synchronized (page) {
+                            page.state = State.FAILED;
+                        }
+                        failed(page.url, e);
+                    } finally {
+                        phaser.arriveAndDeregister();
+                    }
+                });
+                return null;
+            }
+
+            // called with lock of page
+            private void extract(final Page page, final Document doc) {
+                page.state = State.EXTRACTING;
+                phaser.register();
+                linkLoadPool.submit(() -> {
+                    try {
+                        final List<String> links = doc.extractLinks();
+                        final int depth;
+                        synchronized (page) {
+                            page.state = State.DONE;
+                            page.links = links;
+                            depth = page.depth;
+                        }
+                        follow(links, depth);
+                    } catch (IOException e) {
+                        synchronized (page) {
+                            page.state = State.DONE;
+                            page.links = List.of();
+                        }
+                        failed(page.url, e);
+                    } finally {
+                        phaser.arriveAndDeregister();
+                    }
+                });
+            }
         }
     }
 
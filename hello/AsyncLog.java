@@ -0,0 +1,183 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import java.io.PrintStream;
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log: messages are put unformatted into lock-free ring buffer and formatted
+ * and printed by background flusher thread, so logging threads don't wait for {@link PrintStream} lock.
+ * When buffer is full, logging thread waits for place, so no message is lost.
+ * Level is taken from {@code hello.log.level} system property, {@link Level#INFO} by default
+ *
+ * @author Artem Televnoy
+ */
+final class AsyncLog {
+    /**
+     * levels of messages, messages of level below current are ignored
+     */
+    enum Level {
+        INFO, ERROR, OFF
+    }
+
+    private static volatile Level level = getDefaultLevel();
+
+    private AsyncLog() {
+    }
+
+    private static Level getDefaultLevel() {
+        try {
+            return Level.valueOf(System.getProperty("hello.log.level", Level.INFO.name()));
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    static void setLevel(final Level level) {
+        AsyncLog.level = level;
+    }
+
+    static boolean isEnabled(final Level level) {
+        return level.compareTo(AsyncLog.level) >= 0;
+    }
+
+    /**
+     * Nothing is allocated if {@code level} is disabled
+     *
+     * @param arg argument of {@code format}, formatted in flusher thread, so it must not be changed later
+     */
+    static void log(final Level level, final String format, final Object arg) {
+        if (isEnabled(level)) {
+            Ring.INSTANCE.offer(level, format, new Object[]{arg});
+        }
+    }
+
+    // multi-producer single-consumer ring: slot sequence tells whether slot is free for position or filled
+    private static final class Ring {
+        private static final int CAPACITY = 1 << 16;
+        private static final int MASK = CAPACITY - 1;
+        private static final int FLUSH_BATCH = 256;
+
+        private static final Ring INSTANCE = new Ring();
+
+        private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+        private final Level[] levels = new Level[CAPACITY];
+        private final String[] formats = new String[CAPACITY];
+        private final Object[][] args = new Object[CAPACITY][];
+        private final AtomicLong tail = new AtomicLong();
+        private final Thread flusher;
+        // flusher sets it before parking and checks ring again, producers unpark it after publishing
+        private volatile boolean parked;
+        private final StringBuilder out = new StringBuilder();
+        private final StringBuilder err = new StringBuilder();
+        private final Formatter outFormatter = new Formatter(out);
+        private final Formatter errFormatter = new Formatter(err);
+        private volatile long head;
+
+        private Ring() {
+            for (int i = 0; i < CAPACITY; i++) {
+                sequences.set(i, i);
+            }
+
+            flusher = new Thread(this::drain, "hello-log-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::await));
+        }
+
+        private void offer(final Level level, final String format, final Object[] args) {
+            long pos = tail.get();
+            while (true) {
+                final int index = (int) pos & MASK;
+                final long diff = sequences.get(index) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        levels[index] = level;
+                        formats[index] = format;
+                        this.args[index] = args;
+                        // publishes slot to flusher
+                        sequences.set(index, pos + 1);
+                        if (parked) {
+                            LockSupport.unpark(flusher);
+                        }
+                        return;
+                    }
+                    pos = tail.get();
+                } else if (diff < 0) {
+                    // buffer is full, wait until flusher frees slot
+                    LockSupport.unpark(flusher);
+                    Thread.yield();
+                    pos = tail.get();
+                } else {
+                    pos = tail.get();
+                }
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                if (!poll()) {
+                    parked = true;
+                    if (isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            final long pos = head;
+            return sequences.get((int) pos & MASK) != pos + 1;
+        }
+
+        // only one thread prints at once, messages are batched into one write per stream
+        private synchronized boolean poll() {
+            long pos = head;
+            int count = 0;
+            while (count < FLUSH_BATCH) {
+                final int index = (int) pos & MASK;
+                if (sequences.get(index) != pos + 1) {
+                    break;
+                }
+
+                final Formatter formatter = levels[index] == Level.ERROR ? errFormatter : outFormatter;
+                try {
+                    formatter.format(formats[index], this.args[index]);
+                } catch (RuntimeException e) {
+                    formatter.format("Bad log message %s: %s%n", formats[index], e.getMessage());
+                }
+                levels[index] = null;
+                formats[index] = null;
+                this.args[index] = null;
+                sequences.set(index, pos + CAPACITY);
+                pos++;
+                count++;
+            }
+            head = pos;
+
+            print(System.out, out);
+            print(System.err, err);
+            return count > 0;
+        }
+
+        private static void print(final PrintStream stream, final StringBuilder text) {
+            if (!text.isEmpty()) {
+                stream.print(text);
+                stream.flush();
+                text.setLength(0);
+            }
+        }
+
+        private void await() {
+            final long target = tail.get();
+            while (head < target) {
+                if (!poll()) {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+}
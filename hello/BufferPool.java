@@ -0,0 +1,87 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Thread-safe pool of direct buffers in power of two size classes
+ *
+ * @author Artem Televnoy
+ */
+class BufferPool {
+    private final int minShift;
+    private final int maxSize;
+    private final int maxRetained;
+    private final List<Queue<ByteBuffer>> classes;
+    private final AtomicIntegerArray retained;
+
+    /**
+     * Constructor
+     *
+     * @param minSize size of smallest class, power of two
+     * @param maxSize size of greatest class, power of two
+     * @param maxRetained count of free buffers kept in every class
+     */
+    BufferPool(final int minSize, final int maxSize, final int maxRetained) {
+        this.minShift = Integer.numberOfTrailingZeros(minSize);
+        this.maxSize = maxSize;
+        this.maxRetained = maxRetained;
+
+        classes = new ArrayList<>();
+        for (int size = minSize; size <= maxSize; size <<= 1) {
+            classes.add(new ConcurrentLinkedQueue<>());
+        }
+        retained = new AtomicIntegerArray(classes.size());
+    }
+
+    // empty and small buffers are in the smallest class
+    private int classIndex(final int size) {
+        if (size <= 1) {
+            return 0;
+        }
+        return Math.max(0, Integer.SIZE - Integer.numberOfLeadingZeros(size - 1) - minShift);
+    }
+
+    /**
+     * Take cleared buffer with capacity at least {@code size}, greater than max class buffers aren't pooled
+     *
+     * @param size required capacity
+     * @return direct buffer
+     */
+    ByteBuffer take(final int size) {
+        if (size > maxSize) {
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        final int index = classIndex(size);
+        final ByteBuffer buffer = classes.get(index).poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(1 << (index + minShift));
+        }
+        retained.decrementAndGet(index);
+        return buffer.clear();
+    }
+
+    /**
+     * Return buffer taken by {@link #take}
+     *
+     * @param buffer buffer which isn't used anymore
+     */
+    void give(final ByteBuffer buffer) {
+        final int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity > maxSize || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+
+        final int index = classIndex(capacity);
+        if (retained.incrementAndGet(index) <= maxRetained) {
+            classes.get(index).add(buffer);
+        } else {
+            retained.decrementAndGet(index);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloClient;
+import info.kgeorgiy.java.advanced.hello.NewHelloServer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static info.kgeorgiy.ja.televnoi.hello.Methods.*;
+
+/**
+ * Class for comparing throughput of client and server realisations on loopback
+ *
+ * @author Artem Televnoy
+ */
+public class HelloUDPBenchmark {
+    private static final String PREFIX = "bench_";
+
+    private record Variant(String name, Supplier<NewHelloServer> server, Supplier<HelloClient> client) {
+    }
+
+    private static final List<Variant> VARIANTS = List.of(
+            new Variant("blocking", HelloUDPServer::new, HelloUDPClient::new),
+            new Variant("virtual", HelloUDPVirtualServer::new, HelloUDPVirtualClient::new),
+            new Variant("nonblocking", HelloUDPNonblockingServer::new, HelloUDPNonblockingClient::new),
+            new Variant("nonblocking batched",
+                    () -> new HelloUDPNonblockingServer(1, 64), () -> new HelloUDPNonblockingClient(64)),
+            new Variant("nonblocking pipelined",
+                    () -> new HelloUDPNonblockingServer(1, 64), () -> new HelloUDPNonblockingClient(64, 16))
+    );
+
+    private HelloUDPBenchmark() {
+    }
+
+    private static double measure(final Variant variant, final int port, final int threads, final int requests) {
+        try (final NewHelloServer server = variant.server.get()) {
+            server.start(threads, Map.of(port, "Hello, $"));
+
+            final long start = System.nanoTime();
+            variant.client.get().run("localhost", port, PREFIX, threads, requests);
+            return (double) threads * requests * 1e9 / (System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * main method, prints answered requests per second of every variant
+     *
+     * @param args format: {@code port} {@code threads} {@code requests}
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length != 3) {
+            error("Invalid count of arguments: must be three args");
+            return;
+        }
+
+        final int port;
+        final int threads;
+        final int requests;
+        try {
+            port = Integer.parseInt(args[0]);
+            threads = Integer.parseInt(args[1]);
+            requests = Integer.parseInt(args[2]);
+        } catch (NumberFormatException e) {
+            error("Invalid arguments: args must be integer");
+            return;
+        }
+
+        // request logs would dominate measured time
+        AsyncLog.setLevel(AsyncLog.Level.ERROR);
+        for (final Variant variant : VARIANTS) {
+            // first run warms up JIT
+            measure(variant, port, threads, requests);
+            System.out.printf("%-24s %12.0f requests/s%n", variant.name, measure(variant, port, threads, requests));
+        }
+    }
+}
@@ -38,26 +38,31 @@ public class HelloUDPClient implements HelloClient {
         workPool.close();
     }
 
-    private static void reqOfThreads(final int id, final SocketAddress socketAddress, final int requests, final String prefix) {
+    static void reqOfThreads(final int id, final SocketAddress socketAddress, final int requests, final String prefix) {
         try (final DatagramSocket socket = new DatagramSocket()) {
+            final RequestCodec codec = new RequestCodec(prefix);
             final DatagramPacket response = new DatagramPacket(
                     new byte[socket.getReceiveBufferSize()], socket.getReceiveBufferSize());
+            final DatagramPacket msg = new DatagramPacket(codec.bytes(), 0, socketAddress);
             socket.setSoTimeout(WAITING_TIME);
 
             for (int j = 1; j <= requests; j++) {
-                final String reqMes = String.format("%s%d_%d", prefix, id, j);
-                final DatagramPacket msg = new DatagramPacket(reqMes.getBytes(CHARSET), reqMes.length(), socketAddress);
+                msg.setLength(codec.encode(id, j));
 
                 while (!(socket.isClosed() || Thread.currentThread().isInterrupted())) {
                     try {
                         socket.send(msg);
-                        logs("Request was sent:%n%s%n%n", reqMes);
+                        if (isLogging()) {
+                            logs("Request was sent:%n%s%n%n",
+                                    new String(msg.getData(), msg.getOffset(), msg.getLength(), CHARSET));
+                        }
 
                         socket.receive(response);
-                        final String resMes = new String(response.getData(),
-                                response.getOffset(), response.getLength(), CHARSET);
-
-                        if (checkMessage(resMes, prefix, id, j)) {
+                        if (codec.matches(response.getData(), response.getOffset(), response.getLength(), id, j)) {
+                            if (isLogging()) {
+                                logs("Success answer for request. Response was received:%n%s%n%n", new String(
+                                        response.getData(), response.getOffset(), response.getLength(), CHARSET));
+                            }
                             break;
                         }
                     } catch (IOException e) {
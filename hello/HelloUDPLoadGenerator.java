@@ -0,0 +1,281 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import info.kgeorgiy.java.advanced.hello.NewHelloServer;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static info.kgeorgiy.ja.televnoi.hello.Methods.*;
+
+/**
+ * Open-loop load generator for {@link NewHelloServer} realisations on loopback.
+ * Requests are sent by schedule with fixed rate, independent of answers, and latency is measured
+ * from scheduled send time, so stalls of server aren't hidden by generator waiting for it
+ *
+ * @author Artem Televnoy
+ */
+public class HelloUDPLoadGenerator {
+    private static final String PREFIX = "load_";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long TIMEOUT = TimeUnit.MILLISECONDS.toNanos(WAITING_TIME);
+
+    private static final Map<String, Supplier<NewHelloServer>> TARGETS = new LinkedHashMap<>();
+
+    static {
+        TARGETS.put("blocking", HelloUDPServer::new);
+        TARGETS.put("blocking queued", () -> new HelloUDPServer(1024));
+        TARGETS.put("virtual", HelloUDPVirtualServer::new);
+        TARGETS.put("nonblocking", HelloUDPNonblockingServer::new);
+        TARGETS.put("nonblocking batched", () -> new HelloUDPNonblockingServer(1, 64));
+    }
+
+    private final int rate;
+    private final long warmup;
+    private final long duration;
+
+    /**
+     * Result of one run, latencies are in nanoseconds
+     *
+     * @param sent count of measured requests
+     * @param answered count of measured requests which got answer
+     * @param lost count of measured requests without answer after all attempts
+     * @param retransmits count of repeated sends of measured requests
+     * @param throughput answered requests per second
+     * @param p50 median latency
+     * @param p99 99th percentile of latency
+     * @param p999 99.9th percentile of latency
+     * @param max max latency
+     */
+    public record Report(long sent, long answered, long lost, long retransmits, double throughput,
+                         long p50, long p99, long p999, long max) {
+        @Override
+        public String toString() {
+            return String.format("%10.0f req/s  p50 %8.1f us  p99 %8.1f us  p999 %8.1f us  max %8.1f us"
+                            + "  sent %d  lost %d  retransmits %d",
+                    throughput, p50 / 1e3, p99 / 1e3, p999 / 1e3, max / 1e3, sent, lost, retransmits);
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param rate target count of requests per second
+     * @param warmupSeconds seconds of load before measuring
+     * @param durationSeconds seconds of measured load
+     * @throws IllegalArgumentException if {@code rate} or {@code durationSeconds} not positive
+     * or {@code warmupSeconds} is negative
+     */
+    public HelloUDPLoadGenerator(final int rate, final int warmupSeconds, final int durationSeconds) {
+        if (rate <= 0 || warmupSeconds < 0 || durationSeconds <= 0) {
+            throw new IllegalArgumentException("rate and duration must be positive, warmup non negative");
+        }
+        this.rate = rate;
+        this.warmup = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.duration = TimeUnit.SECONDS.toNanos(durationSeconds);
+    }
+
+    /**
+     * Start {@code server} on {@code port}, load it and close it
+     *
+     * @param server target server
+     * @param port loopback port for server
+     * @param threads count of server working threads
+     * @return measured {@link Report}
+     */
+    public Report run(final NewHelloServer server, final int port, final int threads) {
+        try (server) {
+            server.start(threads, Map.of(port, "Hello, $"));
+            return new Session(getSocketAddress("localhost", port)).run();
+        }
+    }
+
+    private static class Pending {
+        private final long seq;
+        private final long scheduled;
+        private final boolean measured;
+        private long deadline;
+        private int attempts;
+        private boolean done;
+
+        public Pending(final long seq, final long scheduled, final boolean measured) {
+            this.seq = seq;
+            this.scheduled = scheduled;
+            this.measured = measured;
+        }
+    }
+
+    private class Session {
+        private final SocketAddress address;
+        private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUF_SIZE);
+        private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final Map<Long, Pending> pending = new HashMap<>();
+        // timeouts are equal, so queue is ordered by deadline
+        private final Queue<Pending> timeouts = new ArrayDeque<>();
+
+        private DatagramChannel channel;
+        private long sent;
+        private long answered;
+        private long lost;
+        private long retransmits;
+
+        public Session(final SocketAddress address) {
+            this.address = address;
+        }
+
+        private Report run() {
+            try (final DatagramChannel channel = openChannel(); final Selector selector = getSelector()) {
+                this.channel = channel;
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_READ);
+
+                final long start = System.nanoTime();
+                final long measureFrom = start + warmup;
+                final long end = measureFrom + duration;
+                final double interval = 1e9 / rate;
+
+                long seq = 0;
+                long next = start;
+                while (next < end || !pending.isEmpty()) {
+                    // every pending request has timeout, so wait is bounded
+                    final long wait = Math.min(next < end ? next : Long.MAX_VALUE,
+                            timeouts.isEmpty() ? Long.MAX_VALUE : timeouts.peek().deadline) - System.nanoTime();
+                    if (wait >= TimeUnit.MILLISECONDS.toNanos(1)) {
+                        selector.select(TimeUnit.NANOSECONDS.toMillis(wait));
+                    } else {
+                        selector.selectNow();
+                    }
+                    selector.selectedKeys().clear();
+
+                    final long now = System.nanoTime();
+                    // every request overdue by schedule is sent now, rate doesn't depend on answers
+                    while (next < end && next <= now) {
+                        send(new Pending(seq, next, next >= measureFrom));
+                        seq++;
+                        next = start + (long) (seq * interval);
+                    }
+
+                    receive();
+                    expire(now);
+                }
+
+                final long p50 = histogram.getValueAtPercentile(50);
+                return new Report(sent, answered, lost, retransmits, answered * 1e9 / duration, p50,
+                        histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMax());
+            } catch (IOException e) {
+                throw new RuntimeException("Error while generating load", e);
+            }
+        }
+
+        private void send(final Pending request) throws IOException {
+            if (request.attempts == 0) {
+                pending.put(request.seq, request);
+                if (request.measured) {
+                    sent++;
+                }
+            } else if (request.measured) {
+                retransmits++;
+            }
+            request.attempts++;
+
+            sendBuffer.clear();
+            sendBuffer.put((PREFIX + request.seq).getBytes(CHARSET)).flip();
+            // full socket buffer is the same as loss, request is resent after timeout
+            channel.write(sendBuffer);
+
+            request.deadline = System.nanoTime() + TIMEOUT;
+            timeouts.add(request);
+        }
+
+        private void receive() throws IOException {
+            while (true) {
+                receiveBuffer.clear();
+                if (channel.read(receiveBuffer) <= 0) {
+                    return;
+                }
+                receiveBuffer.flip();
+
+                final long now = System.nanoTime();
+                final String response = CHARSET.decode(receiveBuffer).toString();
+                final int from = response.lastIndexOf(PREFIX);
+                if (from < 0) {
+                    continue;
+                }
+
+                final Pending request;
+                try {
+                    request = pending.remove(Long.parseLong(response.substring(from + PREFIX.length())));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (request != null) {
+                    request.done = true;
+                    if (request.measured) {
+                        answered++;
+                        histogram.record(now - request.scheduled);
+                    }
+                }
+            }
+        }
+
+        private void expire(final long now) throws IOException {
+            while (!timeouts.isEmpty() && timeouts.peek().deadline <= now) {
+                final Pending request = timeouts.remove();
+                if (request.done) {
+                    continue;
+                }
+
+                if (request.attempts < MAX_ATTEMPTS) {
+                    send(request);
+                } else {
+                    pending.remove(request.seq);
+                    request.done = true;
+                    if (request.measured) {
+                        lost++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * main method, loads every server realisation with the same workload and prints reports
+     *
+     * @param args format: {@code port} {@code threads} {@code rate} {@code warmupSeconds} {@code durationSeconds}
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length != 5) {
+            error("Invalid count of arguments: must be five args");
+            return;
+        }
+
+        final int port;
+        final int threads;
+        final HelloUDPLoadGenerator generator;
+        try {
+            port = Integer.parseInt(args[0]);
+            threads = Integer.parseInt(args[1]);
+            generator = new HelloUDPLoadGenerator(
+                    Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+        } catch (NumberFormatException e) {
+            error("Invalid arguments: args must be integer");
+            return;
+        } catch (IllegalArgumentException e) {
+            error("Invalid arguments: " + e.getMessage());
+            return;
+        }
+
+        // server logs would dominate measured time
+        AsyncLog.setLevel(AsyncLog.Level.ERROR);
+        for (final Map.Entry<String, Supplier<NewHelloServer>> target : TARGETS.entrySet()) {
+            System.out.printf("%-24s %s%n", target.getKey(), generator.run(target.getValue().get(), port, threads));
+        }
+    }
+}
@@ -8,8 +8,13 @@ import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static info.kgeorgiy.ja.televnoi.hello.Methods.*;
 
@@ -19,11 +24,46 @@ import static info.kgeorgiy.ja.televnoi.hello.Methods.*;
  * @author Artem Televnoy
  */
 public class HelloUDPNonblockingClient implements HelloClient {
+    private static final long MIN_RTO = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long MAX_RTO = TimeUnit.MILLISECONDS.toNanos(4L * WAITING_TIME);
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final int WHEEL_SIZE = 256;
+
+    private final int batchSize;
+    private final int window;
 
     /**
      * default constructor
      */
     public HelloUDPNonblockingClient() {
+        this(1);
+    }
+
+    /**
+     * constructor for batching mode: on every wakeup up to {@code batchSize} datagrams
+     * are received from each ready channel
+     *
+     * @param batchSize max count of datagrams received from channel per wakeup
+     * @throws IllegalArgumentException if {@code batchSize} not positive
+     */
+    public HelloUDPNonblockingClient(final int batchSize) {
+        this(batchSize, 1);
+    }
+
+    /**
+     * constructor for batching and pipelining mode: every request thread keeps up to {@code window}
+     * unanswered requests, each of them is resent after its own timeout
+     *
+     * @param batchSize max count of datagrams received from channel per wakeup
+     * @param window max count of unanswered requests per request thread
+     * @throws IllegalArgumentException if {@code batchSize} or {@code window} not positive
+     */
+    public HelloUDPNonblockingClient(final int batchSize, final int window) {
+        if (batchSize <= 0 || window <= 0) {
+            throw new IllegalArgumentException("batchSize and window must be positive");
+        }
+        this.batchSize = batchSize;
+        this.window = window;
     }
 
     /**
@@ -45,102 +85,242 @@ public class HelloUDPNonblockingClient implements HelloClient {
                 final DatagramChannel channel = openChannel();
                 channel.connect(socketAddr);
 
-                channel.register(selector, SelectionKey.OP_WRITE, new VisorObj(i));
+                channel.register(selector, SelectionKey.OP_READ, new VisorObj(i));
             } catch (IOException e) {
                 throw new RuntimeException("Error creating channel", e);
             }
         }
 
-        reqOfThreads(selector, socketAddr, requests, prefix);
+        new Session(selector, socketAddr, prefix, requests).reqOfThreads();
     }
 
-    private static void reqOfThreads(final Selector selector, final SocketAddress socketAddress,
-                                     final int requests, final String prefix) {
-        while (!(selector.keys().isEmpty() || Thread.currentThread().isInterrupted())) {
-            try {
-                if (selector.select(WAITING_TIME) == 0) {
-                    selector.keys().stream().filter(SelectionKey::isWritable).
-                            forEach(o -> requester(o, prefix, socketAddress));
-                    continue;
+    private class Session {
+        private final Selector selector;
+        private final SocketAddress socketAddress;
+        private final RequestCodec codec;
+        private final int requests;
+
+        // one selector thread, so all channels receive into the same buffer
+        private final ByteBuffer receiveBuffer;
+        private final BufferPool buffers;
+        private final TimingWheel timers;
+
+        // smoothed round-trip time and its variation, as in RFC 6298
+        private long srtt;
+        private long rttVar;
+        private long rto;
+
+        public Session(final Selector selector, final SocketAddress socketAddress,
+                       final String prefix, final int requests) {
+            this.selector = selector;
+            this.socketAddress = socketAddress;
+            this.codec = new RequestCodec(prefix);
+            this.requests = requests;
+
+            receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+            buffers = new BufferPool(BUF_SIZE, MAX_DATAGRAM_SIZE, BUF_SIZE);
+            timers = new TimingWheel(System.nanoTime());
+            srtt = -1;
+            rto = TimeUnit.MILLISECONDS.toNanos(WAITING_TIME);
+        }
+
+        private void reqOfThreads() {
+            selector.keys().forEach(this::requester);
+
+            while (!(selector.keys().isEmpty() || Thread.currentThread().isInterrupted())) {
+                try {
+                    selector.select(TimeUnit.NANOSECONDS.toMillis(TICK));
+                } catch (IOException e) {
+                    throw new RuntimeException("Error while processing request", e);
                 }
-            } catch (IOException e) {
-                throw new RuntimeException("Error while processing request", e);
+
+                final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    final SelectionKey key = iterator.next();
+
+                    if (key.isValid() && key.isReadable()) {
+                        responser(key);
+                    }
+
+                    iterator.remove();
+                }
+
+                timers.expire(System.nanoTime(), this::resend);
             }
+        }
 
-            final Set<SelectionKey> keys = selector.selectedKeys();
-            final Iterator<SelectionKey> iterator = keys.iterator();
+        private void responser(final SelectionKey key) {
+            final DatagramChannel channel = (DatagramChannel) key.channel();
+            final VisorObj visorObj = (VisorObj) key.attachment();
 
-            while (iterator.hasNext()) {
-                final SelectionKey key = iterator.next();
+            for (int i = 0; i < batchSize; i++) {
+                receiveBuffer.clear();
+                try {
+                    if (channel.receive(receiveBuffer) == null) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Bad response", e);
+                }
+                receiveBuffer.flip();
 
-                if (key.isReadable()) {
-                    responser(key, prefix, requests);
-                } else {
-                    requester(key, prefix, socketAddress);
+                InFlight answered = null;
+                for (final InFlight request : visorObj.inFlight) {
+                    if (RequestCodec.contains(receiveBuffer, request.buffer.rewind())) {
+                        answered = request;
+                        break;
+                    }
                 }
 
-                iterator.remove();
+                if (answered != null) {
+                    if (isLogging()) {
+                        logs("Success answer for request. Response was received:%n%s%n%n",
+                                CHARSET.decode(receiveBuffer).toString());
+                    }
+                    complete(visorObj, answered);
+                }
             }
+
+            requester(key);
         }
-    }
 
-    private static void responser(final SelectionKey key,
-                                  final String prefix, final int requests) {
-        final DatagramChannel channel = (DatagramChannel) key.channel();
-        final VisorObj visorObj = (VisorObj) key.attachment();
-        final ByteBuffer buffer = visorObj.buffer;
-
-        buffer.clear();
-        try {
-            channel.receive(buffer);
-        } catch (IOException e) {
-            throw new RuntimeException("Bad response", e);
+        private void complete(final VisorObj visorObj, final InFlight request) {
+            if (!request.resent) {
+                // Karn's algorithm: resent requests have ambiguous round-trip time
+                updateRto(System.nanoTime() - request.sentAt);
+            }
+
+            request.done = true;
+            visorObj.inFlight.remove(request);
+            visorObj.answered++;
+            buffers.give(request.buffer);
         }
-        buffer.flip();
 
-        if (checkMessage(CHARSET.decode(buffer).toString(), prefix, visorObj.thread, visorObj.request)) {
-            visorObj.request++;
+        private void updateRto(final long rtt) {
+            if (srtt < 0) {
+                srtt = rtt;
+                rttVar = rtt / 2;
+            } else {
+                rttVar = (3 * rttVar + Math.abs(srtt - rtt)) / 4;
+                srtt = (7 * srtt + rtt) / 8;
+            }
+            rto = Math.min(MAX_RTO, Math.max(MIN_RTO, srtt + 4 * rttVar));
         }
 
-        if (visorObj.request > requests) {
+        private void requester(final SelectionKey key) {
+            final VisorObj visorObj = (VisorObj) key.attachment();
+
+            if (visorObj.answered >= requests) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    throw new RuntimeException("Error occurs with channel", e);
+                }
+                return;
+            }
+
+            while (visorObj.inFlight.size() < window && visorObj.next <= requests) {
+                // request is encoded once and resent from the same buffer until it's answered
+                final ByteBuffer buffer = buffers.take(codec.maxLength());
+                codec.encode(visorObj.thread, visorObj.next++, buffer);
+                final InFlight request = new InFlight(key, buffer.flip(), rto);
+
+                visorObj.inFlight.add(request);
+                send(request);
+            }
+        }
+
+        private void resend(final InFlight request) {
+            if (!request.done && request.key.isValid()) {
+                request.resent = true;
+                request.rto = Math.min(MAX_RTO, request.rto * 2);
+                send(request);
+            }
+        }
+
+        private void send(final InFlight request) {
             try {
-                channel.close();
+                if (isLogging()) {
+                    logs("Request was sent:%n%s%n%n", CHARSET.decode(request.buffer.rewind()).toString());
+                }
+                ((DatagramChannel) request.key.channel()).send(request.buffer.rewind(), socketAddress);
             } catch (IOException e) {
-                throw new RuntimeException("Error occurs with channel", e);
+                throw new RuntimeException("Bad request", e);
             }
-        } else {
-            key.interestOps(SelectionKey.OP_WRITE);
+
+            request.sentAt = System.nanoTime();
+            timers.schedule(request, request.sentAt + request.rto);
+        }
+    }
+
+    private static class InFlight {
+        private final SelectionKey key;
+        private final ByteBuffer buffer;
+        private long rto;
+        private long sentAt;
+        private long deadline;
+        private boolean resent;
+        private boolean done;
+
+        public InFlight(final SelectionKey key, final ByteBuffer buffer, final long rto) {
+            this.key = key;
+            this.buffer = buffer;
+            this.rto = rto;
         }
     }
 
-    private static void requester(final SelectionKey key,
-                                  final String prefix, final SocketAddress socketAddress) {
-        final VisorObj visorObj = (VisorObj) key.attachment();
-        final DatagramChannel channel = (DatagramChannel) key.channel();
-        final ByteBuffer buffer = visorObj.buffer;
-
-        buffer.clear();
-        try {
-            logs("Request was sent:%n%s%d_%d%n%n", prefix, visorObj.thread, visorObj.request);
-            channel.send(ByteBuffer.wrap(String.format(
-                    "%s%d_%d", prefix, visorObj.thread, visorObj.request).getBytes(CHARSET)), socketAddress);
-        } catch (IOException e) {
-            throw new RuntimeException("Bad request", e);
+    // hashed timing wheel of TICK slots, answered requests are skipped instead of being removed
+    private static class TimingWheel {
+        private final List<Queue<InFlight>> slots;
+        private long tickTime;
+        private int current;
+
+        public TimingWheel(final long now) {
+            slots = new ArrayList<>();
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                slots.add(new ArrayDeque<>());
+            }
+            tickTime = now;
         }
-        buffer.flip();
 
-        key.interestOps(SelectionKey.OP_READ);
+        private void schedule(final InFlight request, final long deadline) {
+            request.deadline = deadline;
+            final long ticks = Math.max(1, (deadline - tickTime + TICK - 1) / TICK);
+            slots.get((int) ((current + Math.min(ticks, WHEEL_SIZE - 1)) % WHEEL_SIZE)).add(request);
+        }
+
+        private void expire(final long now, final Consumer<InFlight> action) {
+            while (tickTime + TICK <= now) {
+                tickTime += TICK;
+                current = (current + 1) % WHEEL_SIZE;
+
+                final Queue<InFlight> slot = slots.get(current);
+                for (int i = slot.size(); i > 0; i--) {
+                    final InFlight request = slot.remove();
+                    if (request.done) {
+                        continue;
+                    }
+                    if (request.deadline > now) {
+                        // deadline is farther than one turn of wheel
+                        schedule(request, request.deadline);
+                    } else {
+                        action.accept(request);
+                    }
+                }
+            }
+        }
     }
 
     private static class VisorObj {
-        private final ByteBuffer buffer;
+        private final List<InFlight> inFlight;
         private final int thread;
-        private int request;
+        private int next;
+        private int answered;
 
         public VisorObj(final int thread) {
-            buffer = ByteBuffer.allocate(BUF_SIZE);
+            inFlight = new ArrayList<>();
             this.thread = thread;
-            request = 1;
+            next = 1;
         }
     }
 
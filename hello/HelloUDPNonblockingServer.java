@@ -4,12 +4,15 @@ import info.kgeorgiy.java.advanced.hello.NewHelloServer;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static info.kgeorgiy.ja.televnoi.hello.Methods.*;
 
@@ -19,19 +22,86 @@ import static info.kgeorgiy.ja.televnoi.hello.Methods.*;
  * @author Artem Televnoy
  */
 public class HelloUDPNonblockingServer implements NewHelloServer {
-    private Selector selector;
-    private Set<DatagramChannel> channelSet;
+    private static final int IN_FLIGHT_PER_WORKER = 16;
 
-    private ExecutorService listener;
-    private ExecutorService workers;
+    private final int reactorCount;
+    private final int batchSize;
+    private final OverloadPolicy policy;
+    private final ResponseCache cache;
 
-    private Queue<Future<Answer>> answers;
-    private Queue<ByteBuffer> freeBuffers;
+    private volatile ServerMetrics metrics;
+    private List<Reactor> reactors;
+    private ExecutorService listener;
 
     /**
      * default Constructor
      */
     public HelloUDPNonblockingServer() {
+        this(1);
+    }
+
+    /**
+     * Constructor for multi-reactor mode: every reactor has own selector, channels bound with
+     * {@link StandardSocketOptions#SO_REUSEPORT}, buffers and workers, datagrams are balanced by kernel
+     *
+     * @param reactors count of selector threads
+     * @throws IllegalArgumentException if {@code reactors} not positive
+     */
+    public HelloUDPNonblockingServer(final int reactors) {
+        this(reactors, 1);
+    }
+
+    /**
+     * Constructor for multi-reactor and batching mode: on every wakeup reactor receives
+     * up to {@code batchSize} datagrams from each ready channel
+     *
+     * @param reactors count of selector threads
+     * @param batchSize max count of datagrams received from channel per wakeup
+     * @throws IllegalArgumentException if {@code reactors} or {@code batchSize} not positive
+     */
+    public HelloUDPNonblockingServer(final int reactors, final int batchSize) {
+        this(reactors, batchSize, null);
+    }
+
+    /**
+     * Constructor with response cache: responses for repeated requests are taken from {@code cache}
+     *
+     * @param reactors count of selector threads
+     * @param batchSize max count of datagrams received from channel per wakeup
+     * @param cache cache of responses, {@code null} for filling every response
+     * @throws IllegalArgumentException if {@code reactors} or {@code batchSize} not positive
+     */
+    public HelloUDPNonblockingServer(final int reactors, final int batchSize, final ResponseCache cache) {
+        this(reactors, batchSize, OverloadPolicy.BACKPRESSURE, cache);
+    }
+
+    /**
+     * Constructor with overload policy, applied when every reactor worker has
+     * {@value #IN_FLIGHT_PER_WORKER} requests in process
+     *
+     * @param reactors count of selector threads
+     * @param batchSize max count of datagrams received from channel per wakeup
+     * @param policy overload policy
+     * @param cache cache of responses, {@code null} for filling every response
+     * @throws IllegalArgumentException if {@code reactors} or {@code batchSize} not positive
+     * @throws NullPointerException     if {@code policy} is null
+     */
+    public HelloUDPNonblockingServer(final int reactors, final int batchSize, final OverloadPolicy policy,
+                                     final ResponseCache cache) {
+        if (reactors <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("reactors and batchSize must be positive");
+        }
+        this.reactorCount = reactors;
+        this.batchSize = batchSize;
+        this.policy = Objects.requireNonNull(policy, "Policy must be non null");
+        this.cache = cache;
+    }
+
+    /**
+     * @return metrics of ports served by last start, {@code null} if server wasn't started
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -42,30 +112,33 @@ public class HelloUDPNonblockingServer implements NewHelloServer {
      */
     @Override
     public void start(int threads, Map<Integer, String> map) {
-        answers = new LinkedList<>();
-        channelSet = new HashSet<>();
+        int count = reactorCount;
+        if (count > 1 && !reusePortSupported()) {
+            error("SO_REUSEPORT isn't supported, server works with one reactor");
+            count = 1;
+        }
 
-        freeBuffers = new LinkedList<>();
-        for (int i = 0; i < threads; i++) {
-            freeBuffers.add(ByteBuffer.allocate(BUF_SIZE));
+        // every reactor records own metrics, so reactors don't contend on them; cache is shared for hits
+        // of all reactors and it's locked by segments
+        final List<ServerMetrics> parts = new ArrayList<>();
+        reactors = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final ServerMetrics part = new ServerMetrics(map.keySet());
+            parts.add(part);
+            reactors.add(new Reactor(Math.max(1, threads / count), map, count > 1, batchSize, policy, cache, part));
         }
+        metrics = ServerMetrics.merge(parts);
 
-        selector = getSelector();
+        listener = Executors.newFixedThreadPool(count);
+        reactors.forEach(reactor -> listener.submit(reactor::process));
+    }
 
-        for (final int port : map.keySet()) {
-            final DatagramChannel datagramChannel = openChannel();
-            try {
-                datagramChannel.bind(getSocketAddress(null, port));
-                datagramChannel.register(selector, SelectionKey.OP_READ);
-            } catch (IOException e) {
-                throw new RuntimeException("Couldn't initialize datagram channel", e);
-            }
-            channelSet.add(datagramChannel);
+    private static boolean reusePortSupported() {
+        try (final DatagramChannel channel = DatagramChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
         }
-
-        workers = Executors.newFixedThreadPool(threads);
-        listener = Executors.newSingleThreadExecutor();
-        listener.submit(() -> process(map));
     }
 
     /**
@@ -73,115 +146,292 @@ public class HelloUDPNonblockingServer implements NewHelloServer {
      */
     @Override
     public void close() {
-        if (channelSet == null) {
+        if (reactors == null) {
             return;
         }
 
-        try {
-            for (final DatagramChannel chan : channelSet) {
-                chan.close();
-            }
-            selector.close();
-        } catch (IOException e) {
-            error("Bad closing selector or channel: " + e.getMessage());
-        }
-
-        channelSet = null;
+        reactors.forEach(Reactor::closeChannels);
+        reactors.forEach(reactor -> reactor.workers.shutdownNow());
+        reactors.forEach(reactor -> reactor.workers.close());
+        reactors = null;
         listener.close();
-        workers.close();
     }
 
-    private void process(final Map<Integer, String> map) {
-        while (!Thread.currentThread().isInterrupted() && selector.isOpen()) {
-            try {
-                if (selector.select(WAITING_TIME) == 0) {
-                    selector.keys().stream().filter(SelectionKey::isWritable).
-                            forEach(this::isDoneAnswer);
-                    continue;
+    private static class Reactor {
+        private final Selector selector;
+        private final Set<DatagramChannel> channelSet;
+        private final ExecutorService workers;
+        // requests which aren't taken by workers yet, bounded by maxInFlight
+        private final BlockingDeque<Work> queued;
+
+        // filled by workers, drained by reactor thread after every wakeup
+        private final Queue<Answer> answers;
+        private final AtomicBoolean wakeupPending;
+        private final Queue<Answer> pending;
+        private final BufferPool buffers;
+        private final ByteBuffer receiveBuffer;
+        private final int maxInFlight;
+        private final int batchSize;
+        private final OverloadPolicy policy;
+        private final ResponseCache cache;
+        private int inFlight;
+        private boolean reading;
+
+        public Reactor(final int threads, final Map<Integer, String> map, final boolean reusePort,
+                       final int batchSize, final OverloadPolicy policy, final ResponseCache cache,
+                       final ServerMetrics metrics) {
+            this.batchSize = batchSize;
+            this.policy = policy;
+            this.cache = cache;
+            answers = new ConcurrentLinkedQueue<>();
+            wakeupPending = new AtomicBoolean();
+            pending = new ArrayDeque<>();
+            channelSet = new HashSet<>();
+
+            // datagrams are received whole into one buffer and copied to pooled buffer of fitting size
+            maxInFlight = threads * IN_FLIGHT_PER_WORKER;
+            buffers = new BufferPool(BUF_SIZE, MAX_DATAGRAM_SIZE, maxInFlight);
+            receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+            selector = getSelector();
+
+            for (final Map.Entry<Integer, String> entry : map.entrySet()) {
+                final DatagramChannel datagramChannel = openChannel();
+                try {
+                    if (reusePort) {
+                        datagramChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                    }
+                    datagramChannel.bind(getSocketAddress(null, entry.getKey()));
+                    datagramChannel.register(selector, SelectionKey.OP_READ,
+                            new Port(entry.getKey(), new ResponseTemplate(entry.getValue()),
+                                    metrics.getPort(entry.getKey())));
+                } catch (IOException e) {
+                    throw new RuntimeException("Couldn't initialize datagram channel", e);
                 }
-            } catch (IOException e) {
-                throw new RuntimeException("Error while selecting channels", e);
+                channelSet.add(datagramChannel);
             }
-            final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            reading = true;
 
-            while (iterator.hasNext()) {
-                final SelectionKey key = iterator.next();
+            queued = new LinkedBlockingDeque<>(maxInFlight);
+            workers = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.submit(this::work);
+            }
+        }
 
-                if (key.isReadable()) {
-                    receiveRequest(key, map);
-                } else {
-                    isDoneAnswer(key);
+        private void work() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    // failed request is dropped, worker stays for next ones
+                    try {
+                        queued.take().run();
+                    } catch (RuntimeException e) {
+                        error("Error while answering request: " + e.getMessage());
+                    }
                 }
+            } catch (InterruptedException ignored) {
+            }
+        }
 
-                if (freeBuffers.isEmpty()) {
-                    key.interestOps(SelectionKey.OP_WRITE);
-                } else if (answers.isEmpty()) {
-                    key.interestOps(SelectionKey.OP_READ);
+        private void closeChannels() {
+            try {
+                for (final DatagramChannel chan : channelSet) {
+                    chan.close();
                 }
+                selector.close();
+            } catch (IOException e) {
+                error("Bad closing selector or channel: " + e.getMessage());
+            }
+        }
 
-                iterator.remove();
+        private void process() {
+            try {
+                while (!Thread.currentThread().isInterrupted() && selector.isOpen()) {
+                    try {
+                        selector.select();
+                    } catch (IOException e) {
+                        throw new RuntimeException("Error while selecting channels", e);
+                    }
+
+                    final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        final SelectionKey key = iterator.next();
+
+                        if (key.isValid() && key.isWritable()) {
+                            key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            int received = 0;
+                            while (received < batchSize && canReceive() && receiveRequest(key)) {
+                                received++;
+                            }
+                        }
+
+                        iterator.remove();
+                    }
+
+                    sendAnswers();
+                    setReading(canReceive());
+                }
+            } catch (ClosedSelectorException ignored) {
             }
         }
-    }
 
-    private void receiveRequest(final SelectionKey key, final Map<Integer, String> map) {
-        final ByteBuffer buffer = freeBuffers.remove();
-        final DatagramChannel chan = (DatagramChannel) key.channel();
+        // with load shedding datagrams are received and dropped instead of waiting in socket
+        private boolean canReceive() {
+            return inFlight < maxInFlight || policy != OverloadPolicy.BACKPRESSURE;
+        }
 
-        buffer.clear();
-        final SocketAddress address;
-        try {
-            address = chan.receive(buffer);
-        } catch (IOException e) {
-            throw new RuntimeException("Couldn't receive datagram via channel: " + e.getMessage(), e);
+        private void setReading(final boolean reading) {
+            if (this.reading != reading) {
+                this.reading = reading;
+                for (final SelectionKey key : selector.keys()) {
+                    if (key.isValid()) {
+                        if (reading) {
+                            key.interestOpsOr(SelectionKey.OP_READ);
+                        } else {
+                            key.interestOpsAnd(~SelectionKey.OP_READ);
+                        }
+                    }
+                }
+            }
         }
-        buffer.flip();
 
-        final Future<Answer> future = workers.submit(() -> {
-            final String message = map.get(chan.socket().getLocalPort()).
-                    replace("$", CHARSET.decode(buffer).toString());
-            //Thread.sleep(1);
+        private boolean receiveRequest(final SelectionKey key) {
+            final DatagramChannel chan = (DatagramChannel) key.channel();
+            final Port port = (Port) key.attachment();
+
+            receiveBuffer.clear();
+            final SocketAddress address;
+            try {
+                address = chan.receive(receiveBuffer);
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't receive datagram via channel: " + e.getMessage(), e);
+            }
+            if (address == null) {
+                return false;
+            }
+            receiveBuffer.flip();
+            final long receivedAt = System.nanoTime();
+            port.metrics.received();
+
+            if (inFlight >= maxInFlight) {
+                // oldest request which isn't taken by worker yet is dropped, otherwise received one
+                final Work oldest = policy == OverloadPolicy.DROP_OLDEST ? queued.pollFirst() : null;
+                if (oldest != null) {
+                    oldest.drop();
+                } else {
+                    port.metrics.dropped();
+                    return true;
+                }
+            }
+
+            final ByteBuffer request = buffers.take(receiveBuffer.remaining());
+            request.put(receiveBuffer).flip();
+            inFlight++;
 
-            return new Answer(ByteBuffer.wrap(message.getBytes(CHARSET)), address);
-        });
+            // never blocks, queue has place for every request in flight
+            queued.addLast(new Work(key, port, request, address, receivedAt));
+            return true;
+        }
 
-        answers.add(future);
+        private class Work implements Runnable {
+            private final SelectionKey key;
+            private final Port port;
+            private final ByteBuffer request;
+            private final SocketAddress address;
+            private final long receivedAt;
+
+            public Work(final SelectionKey key, final Port port, final ByteBuffer request,
+                        final SocketAddress address, final long receivedAt) {
+                this.key = key;
+                this.port = port;
+                this.request = request;
+                this.address = address;
+                this.receivedAt = receivedAt;
+            }
 
-        key.interestOpsOr(SelectionKey.OP_WRITE);
-    }
+            // answer is always returned to reactor, without response if it couldn't be made
+            @Override
+            public void run() {
+                ByteBuffer response = null;
+                try {
+                    if (cache != null) {
+                        final byte[] cached = cache.answer(port.template, request);
+                        response = buffers.take(cached.length).put(cached).flip();
+                    } else {
+                        response = buffers.take(port.template.length(request.remaining()));
+                        port.template.write(request, response);
+                        response.flip();
+                    }
+                } catch (RuntimeException e) {
+                    // partly written response isn't sent, answer without response is counted as dropped
+                    if (response != null) {
+                        buffers.give(response);
+                        response = null;
+                    }
+                    throw e;
+                } finally {
+                    buffers.give(request);
+
+                    answers.add(new Answer(key, port, response, address, receivedAt));
+                    // one wakeup for all answers finished before reactor drains them
+                    if (wakeupPending.compareAndSet(false, true)) {
+                        selector.wakeup();
+                    }
+                }
+            }
 
-    private void isDoneAnswer(final SelectionKey key) {
-        for (final Future<Answer> future : answers) {
-            if (future.isDone()) {
-                answering(key, future);
-                break;
+            // called by reactor thread for request removed from queue
+            private void drop() {
+                buffers.give(request);
+                port.metrics.dropped();
+                inFlight--;
             }
         }
-    }
 
-    private void answering(final SelectionKey key, final Future<Answer> future) {
-        final Answer answer;
-        try {
-            answer = future.get();
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException("Bad getting task", e);
-        }
-        answers.remove(future);
+        private void sendAnswers() {
+            wakeupPending.set(false);
+            Answer answer;
+            while ((answer = answers.poll()) != null) {
+                pending.add(answer);
+            }
 
-        answer.buffer.clear();
-        try {
-            ((DatagramChannel) key.channel()).send(answer.buffer, answer.address);
-        } catch (IOException e) {
-            throw new RuntimeException("Bad sending answer", e);
+            while ((answer = pending.peek()) != null) {
+                try {
+                    if (answer.response == null || !answer.key.isValid()) {
+                        answer.port.metrics.dropped();
+                    } else if (!send(answer)) {
+                        // socket buffer is full, retry when channel is writable
+                        answer.key.interestOpsOr(SelectionKey.OP_WRITE);
+                        return;
+                    } else {
+                        answer.port.metrics.answered(answer.receivedAt);
+                    }
+                } catch (IOException e) {
+                    answer.port.metrics.dropped();
+                    error("Bad sending answer: " + e.getMessage());
+                }
+
+                pending.remove();
+                if (answer.response != null) {
+                    buffers.give(answer.response);
+                }
+                inFlight--;
+            }
         }
-        answer.buffer.flip();
+    }
 
-        freeBuffers.add(answer.buffer);
+    // empty response is sent with 0 bytes too, so result is compared with its length
+    private static boolean send(final Answer answer) throws IOException {
+        final int length = answer.response.remaining();
+        return ((DatagramChannel) answer.key.channel()).send(answer.response, answer.address) == length;
+    }
 
-        key.interestOpsOr(SelectionKey.OP_READ);
+    private record Port(int port, ResponseTemplate template, ServerMetrics.Port metrics) {
     }
 
-    private record Answer(ByteBuffer buffer, SocketAddress address) {
+    private record Answer(SelectionKey key, Port port, ByteBuffer response, SocketAddress address, long receivedAt) {
     }
 
     /**
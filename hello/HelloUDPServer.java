@@ -6,8 +6,14 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -20,10 +26,73 @@ import static info.kgeorgiy.ja.televnoi.hello.Methods.*;
  * @author Artem Televnoy
  */
 public class HelloUDPServer implements NewHelloServer {
+    private static final int BATCH_SIZE = 64;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final int queueCapacity;
+    private final OverloadPolicy policy;
+    private final ResponseCache cache;
+
+    private volatile ServerMetrics metrics;
     private Set<DatagramSocket> sockets;
     private ExecutorService workers;
     private ExecutorService listener;
 
+    /**
+     * default constructor, every datagram is received in own packet and passed to workers
+     * through queue of {@value #DEFAULT_QUEUE_CAPACITY} requests
+     */
+    public HelloUDPServer() {
+        this(0);
+    }
+
+    /**
+     * constructor for high-throughput mode: datagrams are received in pooled packets
+     * and passed to workers through bounded queue
+     *
+     * @param queueCapacity capacity of queue between receivers and workers, {@code 0} for default mode
+     * @throws IllegalArgumentException if {@code queueCapacity} is negative
+     */
+    public HelloUDPServer(final int queueCapacity) {
+        this(queueCapacity, null);
+    }
+
+    /**
+     * constructor with response cache: responses for repeated requests are taken from {@code cache}
+     *
+     * @param queueCapacity capacity of queue between receivers and workers, {@code 0} for default mode
+     * @param cache cache of responses, {@code null} for filling every response
+     * @throws IllegalArgumentException if {@code queueCapacity} is negative
+     */
+    public HelloUDPServer(final int queueCapacity, final ResponseCache cache) {
+        this(queueCapacity, OverloadPolicy.BACKPRESSURE, cache);
+    }
+
+    /**
+     * constructor with overload policy, applied when queue between receivers and workers is full
+     *
+     * @param queueCapacity capacity of queue between receivers and workers, {@code 0} for default mode
+     * @param policy overload policy
+     * @param cache cache of responses, {@code null} for filling every response
+     * @throws IllegalArgumentException if {@code queueCapacity} is negative
+     * @throws NullPointerException     if {@code policy} is null
+     */
+    public HelloUDPServer(final int queueCapacity, final OverloadPolicy policy, final ResponseCache cache) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queueCapacity must be non negative");
+        }
+        this.queueCapacity = queueCapacity;
+        this.policy = Objects.requireNonNull(policy, "Policy must be non null");
+        this.cache = cache;
+    }
+
+    /**
+     * @return metrics of ports served by last start, {@code null} if server wasn't started
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * starting server work
      *
@@ -35,48 +104,179 @@ public class HelloUDPServer implements NewHelloServer {
         workers = Executors.newFixedThreadPool(threads);
         listener = Executors.newFixedThreadPool(Math.max(1, ports.size()));
         sockets = ConcurrentHashMap.newKeySet();
+        metrics = new ServerMetrics(ports.keySet());
 
-        for (final int key : ports.keySet()) {
-            final int len;
+        final BlockingQueue<Request> requests =
+                new ArrayBlockingQueue<>(queueCapacity > 0 ? queueCapacity : DEFAULT_QUEUE_CAPACITY);
+        for (int i = 0; i < threads; i++) {
+            workers.submit(() -> answerRequests(requests));
+        }
 
+        for (final int key : ports.keySet()) {
             final DatagramSocket el;
             try {
                 el = new DatagramSocket(key);
                 sockets.add(el);
-                len = el.getReceiveBufferSize();
             } catch (SocketException e) {
                 error(String.format("Error while creating socket on %d port", key));
                 return;
             }
 
+            final ResponseTemplate template = new ResponseTemplate(ports.get(key));
+            final ServerMetrics.Port portMetrics = metrics.getPort(key);
+            if (queueCapacity > 0) {
+                listener.submit(() -> receiveRequests(el, template, portMetrics, requests));
+                continue;
+            }
+
             listener.submit(() -> {
-                while (!(el.isClosed() || Thread.currentThread().isInterrupted())) {
-                    try {
-                        final DatagramPacket msg = new DatagramPacket(new byte[len], len);
-                        el.receive(msg);
-
-                        workers.submit(() -> {
-                            msg.setData(ports.get(key).replace("$", new String(
-                                    msg.getData(), msg.getOffset(), msg.getLength(), CHARSET)).getBytes(CHARSET));
-
-                            try {
-                                el.send(msg);
-                            } catch (IOException e) {
-                                if (!el.isClosed()) {
-                                    error("Error sending message because socket was closed: " + e.getMessage());
-                                }
+                final DatagramPacket receive = new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE);
+                try {
+                    while (!(el.isClosed() || Thread.currentThread().isInterrupted())) {
+                        try {
+                            receive.setLength(MAX_DATAGRAM_SIZE);
+                            el.receive(receive);
+                            final long receivedAt = System.nanoTime();
+                            portMetrics.received();
+
+                            final DatagramPacket msg = new DatagramPacket(Arrays.copyOfRange(receive.getData(),
+                                    receive.getOffset(), receive.getOffset() + receive.getLength()),
+                                    receive.getLength(), receive.getSocketAddress());
+                            enqueue(requests, new Request(el, template, portMetrics, msg, null, receivedAt));
+                        } catch (IOException e) {
+                            if (!el.isClosed()) {
+                                error("Error receiving message because socket was closed: " + e.getMessage());
                             }
-                        });
-                    } catch (IOException e) {
-                        if (!el.isClosed()) {
-                            error("Error receiving message because socket was closed: " + e.getMessage());
                         }
                     }
+                } catch (InterruptedException ignored) {
                 }
             });
         }
     }
 
+    // packet of default mode isn't pooled
+    private record Request(DatagramSocket socket, ResponseTemplate template, ServerMetrics.Port metrics,
+                           DatagramPacket packet, BlockingQueue<DatagramPacket> pool, long receivedAt) {
+        private void release() {
+            if (pool != null) {
+                pool.add(packet);
+            }
+        }
+
+        private void drop() {
+            release();
+            metrics.dropped();
+        }
+    }
+
+    private void receiveRequests(final DatagramSocket socket, final ResponseTemplate template,
+                                 final ServerMetrics.Port metrics, final BlockingQueue<Request> requests) {
+        // datagram is received whole and copied to pooled packet, packets circulate between this receiver
+        // and workers and are allocated only when all of them are in use, until limit is reached
+        final DatagramPacket receive = new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE);
+        final int limit = queueCapacity + BATCH_SIZE;
+        final BlockingQueue<DatagramPacket> pool = new ArrayBlockingQueue<>(limit);
+        int allocated = 0;
+
+        try {
+            while (!(socket.isClosed() || Thread.currentThread().isInterrupted())) {
+                try {
+                    receive.setLength(MAX_DATAGRAM_SIZE);
+                    socket.receive(receive);
+                } catch (IOException e) {
+                    if (!socket.isClosed()) {
+                        error("Error receiving message because socket was closed: " + e.getMessage());
+                    }
+                    continue;
+                }
+                final long receivedAt = System.nanoTime();
+                metrics.received();
+
+                DatagramPacket packet = pool.poll();
+                if (packet == null) {
+                    if (allocated < limit) {
+                        allocated++;
+                        packet = new DatagramPacket(new byte[BUF_SIZE], BUF_SIZE);
+                    } else {
+                        packet = pool.take();
+                    }
+                }
+
+                final int length = receive.getLength();
+                final byte[] data = packet.getData().length < length ? new byte[length] : packet.getData();
+                System.arraycopy(receive.getData(), receive.getOffset(), data, 0, length);
+                packet.setData(data, 0, length);
+                packet.setSocketAddress(receive.getSocketAddress());
+                enqueue(requests, new Request(socket, template, metrics, packet, pool, receivedAt));
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void enqueue(final BlockingQueue<Request> requests, final Request request) throws InterruptedException {
+        switch (policy) {
+            case BACKPRESSURE -> requests.put(request);
+            case DROP_NEWEST -> {
+                if (!requests.offer(request)) {
+                    request.drop();
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!requests.offer(request)) {
+                    final Request oldest = requests.poll();
+                    if (oldest != null) {
+                        oldest.drop();
+                    }
+                }
+            }
+        }
+    }
+
+    private void answerRequests(final BlockingQueue<Request> requests) {
+        final List<Request> batch = new ArrayList<>(BATCH_SIZE);
+        final DatagramPacket response = new DatagramPacket(new byte[BUF_SIZE], BUF_SIZE);
+        byte[] out = response.getData();
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(requests.take());
+                requests.drainTo(batch, BATCH_SIZE - 1);
+
+                for (final Request request : batch) {
+                    final DatagramPacket packet = request.packet;
+                    if (cache != null) {
+                        response.setData(cache.answer(request.template,
+                                packet.getData(), packet.getOffset(), packet.getLength()));
+                    } else {
+                        final int length = request.template.length(packet.getLength());
+                        if (out.length < length) {
+                            out = new byte[Math.max(length, out.length * 2)];
+                        }
+
+                        request.template.write(packet.getData(), packet.getOffset(), packet.getLength(), out, 0);
+                        response.setData(out, 0, length);
+                    }
+                    response.setAddress(packet.getAddress());
+                    response.setPort(packet.getPort());
+
+                    try {
+                        request.socket.send(response);
+                        request.metrics.answered(request.receivedAt);
+                    } catch (IOException e) {
+                        request.metrics.dropped();
+                        if (!request.socket.isClosed()) {
+                            error("Error sending message because socket was closed: " + e.getMessage());
+                        }
+                    }
+                    request.release();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
     /**
      * close socket and threadPools
      */
@@ -85,6 +285,8 @@ public class HelloUDPServer implements NewHelloServer {
         if (sockets != null) {
             sockets.forEach(DatagramSocket::close);
         }
+        workers.shutdownNow();
+        listener.shutdownNow();
         workers.close();
         listener.close();
     }
@@ -0,0 +1,53 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloClient;
+
+import java.net.SocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static info.kgeorgiy.ja.televnoi.hello.Methods.*;
+
+/**
+ * class for imitation client, every request thread is virtual thread with own socket
+ *
+ * @author Artem Televnoy
+ */
+public class HelloUDPVirtualClient implements HelloClient {
+
+    /**
+     * default constructor
+     */
+    public HelloUDPVirtualClient() {
+    }
+
+    /**
+     * run client
+     *
+     * @param host server host
+     * @param port server port
+     * @param prefix request prefix
+     * @param threads number of request threads
+     * @param requests number of requests per thread.
+     */
+    @Override
+    public void run(String host, int port, String prefix, int threads, int requests) {
+        final SocketAddress socketAddr = getSocketAddress(host, port);
+
+        try (final ExecutorService workPool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 1; i <= threads; i++) {
+                final int id = i;
+                workPool.submit(() -> HelloUDPClient.reqOfThreads(id, socketAddr, requests, prefix));
+            }
+        }
+    }
+
+    /**
+     * main method
+     *
+     * @param args args format: {@code host}, {@code port}, {@code prefix}, {@code threads}, {@code requests}
+     */
+    public static void main(String[] args) {
+        clientMainer(args, new HelloUDPVirtualClient());
+    }
+}
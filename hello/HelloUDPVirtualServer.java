@@ -0,0 +1,131 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import info.kgeorgiy.java.advanced.hello.NewHelloServer;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static info.kgeorgiy.ja.televnoi.hello.Methods.*;
+
+/**
+ * Class for imitation server, every request is answered by own virtual thread
+ *
+ * @author Artem Televnoy
+ */
+public class HelloUDPVirtualServer implements NewHelloServer {
+    private final ResponseCache cache;
+
+    private Set<DatagramSocket> sockets;
+    private ExecutorService workers;
+    private ExecutorService listener;
+
+    /**
+     * default constructor
+     */
+    public HelloUDPVirtualServer() {
+        this(null);
+    }
+
+    /**
+     * constructor with response cache: responses for repeated requests are taken from {@code cache}
+     *
+     * @param cache cache of responses, {@code null} for filling every response
+     */
+    public HelloUDPVirtualServer(final ResponseCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * starting server work
+     *
+     * @param ports map server port.
+     * @param threads ignored, count of virtual threads is count of requests in process
+     */
+    @Override
+    public void start(int threads, Map<Integer, String> ports) {
+        workers = Executors.newVirtualThreadPerTaskExecutor();
+        // receivers are platform threads, otherwise with many virtual clients in the same process
+        // they wait for carrier thread and socket buffer overflows
+        listener = Executors.newFixedThreadPool(Math.max(1, ports.size()));
+        sockets = ConcurrentHashMap.newKeySet();
+
+        for (final Map.Entry<Integer, String> entry : ports.entrySet()) {
+            final DatagramSocket el;
+            try {
+                el = new DatagramSocket(entry.getKey());
+                sockets.add(el);
+            } catch (SocketException e) {
+                error(String.format("Error while creating socket on %d port", entry.getKey()));
+                return;
+            }
+
+            final ResponseTemplate template = new ResponseTemplate(entry.getValue());
+            listener.submit(() -> {
+                // datagram is received into one buffer, worker holds only copy of its bytes
+                final DatagramPacket receive = new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE);
+                while (!(el.isClosed() || Thread.currentThread().isInterrupted())) {
+                    try {
+                        receive.setLength(MAX_DATAGRAM_SIZE);
+                        el.receive(receive);
+                        final DatagramPacket msg = new DatagramPacket(Arrays.copyOfRange(receive.getData(),
+                                receive.getOffset(), receive.getOffset() + receive.getLength()),
+                                receive.getLength(), receive.getSocketAddress());
+                        workers.submit(() -> answer(el, template, msg));
+                    } catch (IOException e) {
+                        if (!el.isClosed()) {
+                            error("Error receiving message because socket was closed: " + e.getMessage());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void answer(final DatagramSocket socket, final ResponseTemplate template, final DatagramPacket msg) {
+        if (cache != null) {
+            msg.setData(cache.answer(template, msg.getData(), msg.getOffset(), msg.getLength()));
+        } else {
+            final byte[] response = new byte[template.length(msg.getLength())];
+            template.write(msg.getData(), msg.getOffset(), msg.getLength(), response, 0);
+            msg.setData(response);
+        }
+
+        try {
+            socket.send(msg);
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                error("Error sending message because socket was closed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * close sockets and threads
+     */
+    @Override
+    public void close() {
+        if (sockets != null) {
+            sockets.forEach(DatagramSocket::close);
+            listener.close();
+            workers.close();
+            sockets = null;
+        }
+    }
+
+    /**
+     * main method for starting server work
+     *
+     * @param args format: {@code port} {@code threads}
+     */
+    public static void main(String[] args) {
+        serverMainer(args, new HelloUDPVirtualServer());
+    }
+}
@@ -0,0 +1,84 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in the HdrHistogram manner: every power of two range is split into
+ * {@code SUB_BUCKETS / 2} linear buckets, so relative error of any quantile is below {@code 2 / SUB_BUCKETS}.
+ * Values may be recorded concurrently
+ *
+ * @author Artem Televnoy
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * HALF);
+    private final LongAdder count = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(final long value) {
+        final long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        count.increment();
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    /**
+     * Add all values of {@code other}, values recorded concurrently may be missed
+     *
+     * @param other added histogram
+     */
+    void add(final LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            final long value = other.counts.get(i);
+            if (value != 0) {
+                counts.addAndGet(i, value);
+            }
+        }
+        count.add(other.count.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile percent of values that are not greater than result, from {@code 0} to {@code 100}
+     * @return highest value equivalent to value at {@code percentile}, {@code 0} if histogram is empty
+     */
+    long getValueAtPercentile(final double percentile) {
+        final long target = Math.max(1, (long) Math.ceil(percentile / 100 * count.sum()));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(max.get(), highestEquivalent(i));
+            }
+        }
+        return max.get();
+    }
+
+    private static int index(final long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (v >>> shift) - HALF;
+    }
+
+    private static long highestEquivalent(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / HALF + 1;
+        final long mantissa = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -12,15 +12,20 @@ import java.nio.charset.StandardCharsets;
 
 public class Methods {
     protected static final int BUF_SIZE = 1024;
+    protected static final int MAX_DATAGRAM_SIZE = 1 << 16;
     protected static final int WAITING_TIME = 500;
     protected static final Charset CHARSET = StandardCharsets.UTF_8;
 
     protected static void error(final String mes) {
-        System.err.println(mes);
+        AsyncLog.log(AsyncLog.Level.ERROR, "%s%n", mes);
     }
 
-    protected static void logs(final String mes, final Object... args) {
-        System.out.printf(mes, args);
+    protected static void logs(final String mes, final Object arg) {
+        AsyncLog.log(AsyncLog.Level.INFO, mes, arg);
+    }
+
+    protected static boolean isLogging() {
+        return AsyncLog.isEnabled(AsyncLog.Level.INFO);
     }
 
     protected static InetSocketAddress getSocketAddress(final String host, final int port) {
@@ -62,14 +67,6 @@ public class Methods {
         }
     }
 
-    protected static boolean checkMessage(final String resMes, final String prefix, final int i, final int j) {
-        if (resMes.contains(String.format("%s%d_%d", prefix, i, j))) {
-            logs("Success answer for request. Response was received:%n%s%n%n", resMes);
-            return true;
-        }
-        return false;
-    }
-
     protected static void serverMainer(String[] args, final HelloServer server) {
         if (args == null || args.length != 2) {
             error("Invalid count of arguments: must be two args");
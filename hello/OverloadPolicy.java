@@ -0,0 +1,21 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+/**
+ * Behaviour of server when its queue of requests is full
+ *
+ * @author Artem Televnoy
+ */
+public enum OverloadPolicy {
+    /**
+     * receiving waits for free place, excess datagrams are dropped by socket
+     */
+    BACKPRESSURE,
+    /**
+     * received datagram is dropped
+     */
+    DROP_NEWEST,
+    /**
+     * the oldest queued request is dropped for received datagram
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,142 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Codec of requests {@code <prefix><thread>_<request>}: requests are written as bytes
+ * into reused array, responses are checked by byte search without decoding.
+ * Not thread-safe, every request thread uses own codec
+ *
+ * @author Artem Televnoy
+ */
+class RequestCodec {
+    // sign and ten digits of int
+    private static final int MAX_INT_LENGTH = 11;
+
+    private final int prefixLength;
+    private final byte[] request;
+
+    /**
+     * Constructor
+     *
+     * @param prefix request prefix
+     */
+    RequestCodec(final String prefix) {
+        final byte[] bytes = prefix.getBytes(Methods.CHARSET);
+        prefixLength = bytes.length;
+        request = Arrays.copyOf(bytes, prefixLength + 2 * MAX_INT_LENGTH + 1);
+    }
+
+    /**
+     * Write request into array returned by {@link #bytes()}, it's valid until next call
+     *
+     * @param thread request thread
+     * @param number request number
+     * @return request length
+     */
+    int encode(final int thread, final int number) {
+        final int pos = writeInt(thread, prefixLength);
+        request[pos] = '_';
+        return writeInt(number, pos + 1);
+    }
+
+    /**
+     * Write request into {@code out}
+     *
+     * @param thread request thread
+     * @param number request number
+     * @param out buffer with enough remaining bytes
+     */
+    void encode(final int thread, final int number, final ByteBuffer out) {
+        out.put(request, 0, encode(thread, number));
+    }
+
+    /**
+     * @return max length of request
+     */
+    int maxLength() {
+        return request.length;
+    }
+
+    /**
+     * @return array with last encoded request
+     */
+    byte[] bytes() {
+        return request;
+    }
+
+    /**
+     * Check that response contains request, which isn't part of longer number: {@code p1_1} isn't found
+     * in {@code p1_10}, so late answer for other request isn't taken
+     *
+     * @param data response bytes
+     * @param offset response offset
+     * @param length response length
+     * @param thread request thread
+     * @param number request number
+     * @return {@code true} if response contains request
+     */
+    boolean matches(final byte[] data, final int offset, final int length, final int thread, final int number) {
+        final int requestLength = encode(thread, number);
+        final int end = offset + length;
+        final boolean digitFirst = isDigit(request[0]);
+        for (int i = offset; i <= end - requestLength; i++) {
+            if (Arrays.equals(data, i, i + requestLength, request, 0, requestLength)
+                    && !(digitFirst && i > offset && isDigit(data[i - 1]))
+                    && !(i + requestLength < end && isDigit(data[i + requestLength]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDigit(final byte b) {
+        return '0' <= b && b <= '9';
+    }
+
+    /**
+     * Check that remaining bytes of {@code response} contain remaining bytes of {@code request},
+     * which aren't part of longer number, as in {@link #matches}. Positions of buffers aren't changed
+     *
+     * @param response response buffer
+     * @param request request buffer
+     * @return {@code true} if response contains request
+     */
+    static boolean contains(final ByteBuffer response, final ByteBuffer request) {
+        final int length = request.remaining();
+        final int start = response.position();
+        final int limit = response.limit();
+        final boolean digitFirst = length > 0 && isDigit(request.get(request.position()));
+        for (int i = start; i <= limit - length; i++) {
+            int j = 0;
+            while (j < length && response.get(i + j) == request.get(request.position() + j)) {
+                j++;
+            }
+            if (j == length
+                    && !(digitFirst && i > start && isDigit(response.get(i - 1)))
+                    && !(i + length < limit && isDigit(response.get(i + length)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int writeInt(final int value, final int from) {
+        int pos = from;
+        if (value < 0) {
+            request[pos++] = '-';
+        }
+
+        long rest = Math.abs((long) value);
+        int end = pos + 1;
+        for (long i = rest; i >= 10; i /= 10) {
+            end++;
+        }
+        for (int i = end - 1; i >= pos; i--) {
+            request[i] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        }
+        return end;
+    }
+}
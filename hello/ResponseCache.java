@@ -0,0 +1,162 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of server responses keyed by template and request bytes, so repeated and resent
+ * requests are answered without filling template. Cache may be shared by servers and kept between
+ * their starts, responses of changed template aren't taken. Cache is split into segments with own lock,
+ * every segment evicts least recently used responses when its share of memory limit is exceeded
+ *
+ * @author Artem Televnoy
+ */
+public class ResponseCache {
+    private static final int SEGMENTS = 16;
+    // approximate size of key, entry and arrays headers
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long segmentLimit;
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor
+     *
+     * @param maxBytes approximate limit of memory used by cached requests and responses
+     * @throws IllegalArgumentException if {@code maxBytes} not positive
+     */
+    public ResponseCache(final long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        segmentLimit = Math.max(1, maxBytes / SEGMENTS);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    private static class Key {
+        private final ResponseTemplate template;
+        private final byte[] request;
+        private final int hash;
+
+        public Key(final ResponseTemplate template, final byte[] request) {
+            this.template = template;
+            this.request = request;
+            this.hash = 31 * template.hashCode() + Arrays.hashCode(request);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key key && hash == key.hash
+                    && Arrays.equals(request, key.request) && template.equals(key.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private class Segment {
+        private final LinkedHashMap<Key, byte[]> map = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        synchronized private byte[] get(final Key key) {
+            return map.get(key);
+        }
+
+        synchronized private void put(final Key key, final byte[] response) {
+            final long size = size(key, response);
+            if (size > segmentLimit) {
+                return;
+            }
+
+            final byte[] old = map.put(key, response);
+            bytes += size - (old == null ? 0 : size(key, old));
+
+            final Iterator<Map.Entry<Key, byte[]>> eldest = map.entrySet().iterator();
+            while (bytes > segmentLimit) {
+                final Map.Entry<Key, byte[]> entry = eldest.next();
+                bytes -= size(entry.getKey(), entry.getValue());
+                eldest.remove();
+            }
+        }
+
+        private static long size(final Key key, final byte[] response) {
+            return ENTRY_OVERHEAD + key.request.length + response.length;
+        }
+    }
+
+    /**
+     * Get cached response or fill {@code template} and cache result
+     *
+     * @param template response template
+     * @param data request bytes
+     * @param offset request offset
+     * @param length request length
+     * @return response bytes, mustn't be changed
+     */
+    byte[] answer(final ResponseTemplate template, final byte[] data, final int offset, final int length) {
+        return answer(new Key(template, Arrays.copyOfRange(data, offset, offset + length)));
+    }
+
+    /**
+     * Get cached response or fill {@code template} and cache result, position of {@code request} isn't changed
+     *
+     * @param template response template
+     * @param request request buffer
+     * @return response bytes, mustn't be changed
+     */
+    byte[] answer(final ResponseTemplate template, final ByteBuffer request) {
+        final byte[] bytes = new byte[request.remaining()];
+        request.get(request.position(), bytes);
+        return answer(new Key(template, bytes));
+    }
+
+    private byte[] answer(final Key key) {
+        final Segment segment = segments[(key.hash ^ (key.hash >>> 16)) & (SEGMENTS - 1)];
+
+        byte[] response = segment.get(key);
+        if (response != null) {
+            hits.increment();
+            return response;
+        }
+
+        misses.increment();
+        response = new byte[key.template.length(key.request.length)];
+        key.template.write(key.request, 0, key.request.length, response, 0);
+        segment.put(key, response);
+        return response;
+    }
+
+    /**
+     * @return count of requests answered from cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return count of requests which responses were filled
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return part of requests answered from cache, {@code 0} if there were no requests
+     */
+    public double getHitRatio() {
+        final long hit = hits.sum();
+        final long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+}
@@ -0,0 +1,86 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Response template with {@code $} placeholders, filled with request bytes without decoding them
+ *
+ * @author Artem Televnoy
+ */
+class ResponseTemplate {
+    private final byte[][] parts;
+    private final int partsLength;
+    private final int hash;
+
+    /**
+     * Constructor
+     *
+     * @param template response template, every {@code $} is replaced by request
+     */
+    ResponseTemplate(final String template) {
+        parts = Arrays.stream(template.split("\\$", -1)).map(part -> part.getBytes(Methods.CHARSET)).toArray(byte[][]::new);
+        partsLength = Arrays.stream(parts).mapToInt(part -> part.length).sum();
+        hash = Arrays.deepHashCode(parts);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof ResponseTemplate template && hash == template.hash
+                && Arrays.deepEquals(parts, template.parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Length of response for request of {@code length} bytes
+     *
+     * @param length request length
+     * @return response length
+     */
+    int length(final int length) {
+        return partsLength + (parts.length - 1) * length;
+    }
+
+    /**
+     * Write response to {@code out}, which must have at least {@link #length} bytes from {@code outOffset}
+     *
+     * @param in request bytes
+     * @param offset request offset
+     * @param length request length
+     * @param out response bytes
+     * @param outOffset response offset
+     * @return response length
+     */
+    int write(final byte[] in, final int offset, final int length, final byte[] out, final int outOffset) {
+        int pos = outOffset;
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                System.arraycopy(in, offset, out, pos, length);
+                pos += length;
+            }
+            System.arraycopy(parts[i], 0, out, pos, parts[i].length);
+            pos += parts[i].length;
+        }
+        return pos - outOffset;
+    }
+
+    /**
+     * Write response for remaining bytes of {@code in} to {@code out}, position of {@code in} isn't changed
+     *
+     * @param in request bytes
+     * @param out response buffer with at least {@link #length} remaining bytes
+     */
+    void write(final ByteBuffer in, final ByteBuffer out) {
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                out.put(out.position(), in, in.position(), in.remaining());
+                out.position(out.position() + in.remaining());
+            }
+            out.put(parts[i]);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package info.kgeorgiy.ja.televnoi.hello;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Counters of hello server for every port: received, answered and dropped requests,
+ * count of requests in server and latency from receiving request to sending answer.
+ * Metrics of several threads may be recorded separately and summed on read by {@link #merge}
+ *
+ * @author Artem Televnoy
+ */
+public class ServerMetrics {
+    private final Map<Integer, Port> ports;
+
+    /**
+     * Constructor
+     *
+     * @param ports served ports
+     */
+    ServerMetrics(final Iterable<Integer> ports) {
+        final Map<Integer, Port> map = new TreeMap<>();
+        ports.forEach(port -> map.put(port, new Port()));
+        this.ports = Collections.unmodifiableMap(map);
+    }
+
+    private ServerMetrics(final Map<Integer, Port> ports) {
+        this.ports = Collections.unmodifiableMap(ports);
+    }
+
+    /**
+     * Metrics, which are sums of {@code parts} on every read
+     *
+     * @param parts metrics of the same ports
+     * @return merged metrics
+     */
+    static ServerMetrics merge(final List<ServerMetrics> parts) {
+        final Map<Integer, Port> map = new TreeMap<>();
+        parts.get(0).ports.keySet().forEach(port ->
+                map.put(port, new Port(parts.stream().map(part -> part.getPort(port)).toList())));
+        return new ServerMetrics(map);
+    }
+
+    /**
+     * Metrics of one port
+     */
+    public static class Port {
+        private final LongAdder received = new LongAdder();
+        private final LongAdder answered = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        // recorded metrics, which are summed on read
+        private final List<Port> parts;
+
+        private Port() {
+            parts = List.of(this);
+        }
+
+        private Port(final List<Port> parts) {
+            this.parts = parts;
+        }
+
+        private long sum(final Function<Port, LongAdder> counter) {
+            long sum = 0;
+            for (final Port part : parts) {
+                sum += counter.apply(part).sum();
+            }
+            return sum;
+        }
+
+        void received() {
+            received.increment();
+        }
+
+        void answered(final long receivedAt) {
+            latency.record(System.nanoTime() - receivedAt);
+            answered.increment();
+        }
+
+        void dropped() {
+            dropped.increment();
+        }
+
+        /**
+         * @return count of received requests
+         */
+        public long getReceived() {
+            return sum(port -> port.received);
+        }
+
+        /**
+         * @return count of sent answers
+         */
+        public long getAnswered() {
+            return sum(port -> port.answered);
+        }
+
+        /**
+         * @return count of requests dropped by overload policy or failed to be answered
+         */
+        public long getDropped() {
+            return sum(port -> port.dropped);
+        }
+
+        /**
+         * @return count of received requests which are neither answered nor dropped
+         */
+        public long getQueueDepth() {
+            // answered and dropped are read first, so depth is never negative
+            final long done = getAnswered() + getDropped();
+            return getReceived() - done;
+        }
+
+        /**
+         * @param percentile percent of requests processed not longer than result, from {@code 0} to {@code 100}
+         * @return processing latency in nanoseconds
+         */
+        public long getLatency(final double percentile) {
+            if (parts.size() == 1) {
+                return parts.get(0).latency.getValueAtPercentile(percentile);
+            }
+
+            final LatencyHistogram merged = new LatencyHistogram();
+            parts.forEach(part -> merged.add(part.latency));
+            return merged.getValueAtPercentile(percentile);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("received %d answered %d dropped %d queued %d p50 %.1f us p99 %.1f us",
+                    getReceived(), getAnswered(), getDropped(), getQueueDepth(),
+                    getLatency(50) / 1e3, getLatency(99) / 1e3);
+        }
+    }
+
+    /**
+     * @param port served port
+     * @return metrics of {@code port} or {@code null} if port isn't served
+     */
+    public Port getPort(final int port) {
+        return ports.get(port);
+    }
+
+    /**
+     * @return metrics of all served ports by port
+     */
+    public Map<Integer, Port> getPorts() {
+        return ports;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        ports.forEach((port, metrics) -> sb.append(port).append(": ").append(metrics).append(System.lineSeparator()));
+        return sb.toString();
+    }
+}
@@ -4,9 +4,18 @@ import info.kgeorgiy.java.advanced.iterative.NewScalarIP;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
 
 /**
  * This class gives realisations of some functions, functions base on threads
@@ -14,14 +23,45 @@ import java.util.function.Supplier;
  * @author Artem Televnoy
  */
 @SuppressWarnings("unused")
-public class IterativeParallelism implements NewScalarIP {
+public class IterativeParallelism implements NewScalarIP, AutoCloseable {
+    // partition shorter than this isn't worth passing it to other thread
+    private static final long MIN_PARTITION_NANOS = 20_000;
+    private static final double COST_WEIGHT = 0.25;
+
     private final ParallelMapper parallelMapper;
+    private final int minPartitionSize;
+    private final boolean adaptive;
+    // average time of processing of one element, 0 until first call is measured
+    private volatile double elementNanos;
+    private ExecutorService pool;
 
     /**
-     * Default constructor
+     * Default constructor. Partition size is adapted to measured cost of elements of previous calls:
+     * every thread gets at least about {@code 20} microseconds of work, so small inputs of cheap
+     * operations are processed on the calling thread
      */
     public IterativeParallelism() {
-        parallelMapper = null;
+        this.parallelMapper = null;
+        this.minPartitionSize = 1;
+        this.adaptive = true;
+    }
+
+    /**
+     * Constructor with lower bound on partition size, smaller inputs use fewer threads
+     * and inputs smaller than {@code minPartitionSize} are processed on the calling thread.
+     * Bound is set by caller for cost of its operations, it isn't adapted
+     *
+     * @param minPartitionSize minimal count of elements per thread
+     * @throws IllegalArgumentException if {@code minPartitionSize} not positive
+     */
+    public IterativeParallelism(final int minPartitionSize) {
+        if (minPartitionSize <= 0) {
+            throw new IllegalArgumentException("minPartitionSize must be positive");
+        }
+
+        this.parallelMapper = null;
+        this.minPartitionSize = minPartitionSize;
+        this.adaptive = false;
     }
 
     /**
@@ -30,67 +70,155 @@ public class IterativeParallelism implements NewScalarIP {
      */
     public IterativeParallelism(final ParallelMapper parallelMapper) {
         this.parallelMapper = parallelMapper;
+        this.minPartitionSize = 1;
+        this.adaptive = false;
     }
 
-    private static class MyThread<T> extends Thread {
-        private T res;
-        private final Supplier<T> sup;
-
-        public MyThread(final Supplier<T> sup) {
-            this.sup = sup;
+    /**
+     * Stop worker threads of internal pool, pool will be started again on the next call.
+     * Has no effect in {@link ParallelMapper} mod
+     */
+    @Override
+    public synchronized void close() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
         }
+    }
 
-        @Override
-        public void run() {
-            res = sup.get();
+    private synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newCachedThreadPool(r -> {
+                final Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return pool;
     }
 
-    private static <T, R> List<R> mapper(final Function<T, R> f, final List<? extends T> list) throws InterruptedException {
-        final List<MyThread<R>> threadList = new ArrayList<>();
+    private <T, R> List<R> mapper(final Function<T, R> f, final List<? extends T> list) throws InterruptedException {
+        final List<Callable<R>> tasks = new ArrayList<>();
         for (final T el : list) {
-            final MyThread<R> myThread = new MyThread<>(() -> f.apply(el));
-
-            threadList.add(myThread);
-            myThread.start();
+            tasks.add(() -> f.apply(el));
         }
 
         final List<R> results = new ArrayList<>();
-        for (final MyThread<R> t : threadList) {
-            t.join();
-            results.add(t.res);
+        for (final Future<R> future : invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                } else if (e.getCause() instanceof Error cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException("Error in worker thread", e.getCause());
+            }
         }
 
         return results;
     }
 
+    // pool closed by concurrent close() rejects tasks, then they're run on the started again pool
+    private <R> List<Future<R>> invokeAll(final List<Callable<R>> tasks) throws InterruptedException {
+        while (true) {
+            try {
+                return getPool().invokeAll(tasks);
+            } catch (RejectedExecutionException ignored) {
+            }
+        }
+    }
+
+    private static class Slice<T> extends AbstractList<T> implements RandomAccess {
+        private final List<? extends T> values;
+        private final int start;
+        private final int size;
+        private final int step;
+
+        public Slice(final List<? extends T> values, final int start, final int size, final int step) {
+            this.values = values;
+            this.start = start;
+            this.size = size;
+            this.step = step;
+        }
+
+        @Override
+        public T get(final int index) {
+            return values.get(start + Objects.checkIndex(index, size) * step);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private <T, R> R opAbstract(final int threads, final List<? extends T> values, final Function<List<T>, R> f,
+                                final Function<List<R>, R> f2, final int step) throws InterruptedException {
+        return opAbstract(threads, values, f, f2, step, () -> false);
+    }
+
     private <T, R> R opAbstract(int threads, final List<? extends T> values, final Function<List<T>, R> f,
-                                       final Function<List<R>, R> f2, final int step) throws InterruptedException {
+                                final Function<List<R>, R> f2, final int step,
+                                final BooleanSupplier cancelled) throws InterruptedException {
         if (threads <= 0) {
             throw new IllegalArgumentException("threads must be positive");
         }
 
+        // slices read the source by index, so linked lists are copied once instead of walked on every get
+        final List<? extends T> source = values instanceof RandomAccess ? values : new ArrayList<>(values);
         final List<List<T>> partitions = new ArrayList<>();
 
-        final int realLen = (int) Math.ceil((double) values.size() / step);
-        final int move = realLen / (threads = Math.min(threads, realLen));
+        final int realLen = (source.size() + step - 1) / step;
+        threads = Math.max(1, Math.min(threads, realLen / partitionSize()));
+        final int move = realLen / threads;
         int remainder = realLen - move * threads;
 
         int j = 0;
         for (int i = 0; i < threads; i++) {
-            final List<T> partition = new ArrayList<>();
+            final int size = move + (remainder > 0 ? 1 : 0);
+            partitions.add(new Slice<>(source, j, size, step));
 
-            for (int k = 0; k < move + (remainder > 0 ? 1 : 0); k++, j += step) {
-                partition.add(values.get(j));
-            }
+            j += size * step;
             if (remainder > 0) {
                 remainder--;
             }
+        }
 
-            partitions.add(partition);
+        final Function<List<T>, R> task = adaptive ? measured(f) : f;
+        final List<R> results;
+        if (threads == 1 && parallelMapper == null) {
+            results = Collections.singletonList(task.apply(partitions.get(0)));
+        } else if (parallelMapper == null) {
+            results = mapper(task, partitions);
+        } else if (parallelMapper instanceof ParallelMapperImpl impl) {
+            results = impl.map(f, partitions, cancelled);
+        } else {
+            results = parallelMapper.map(f, partitions);
         }
 
-        return f2.apply(parallelMapper == null ? mapper(f, partitions) : parallelMapper.map(f, partitions));
+        return f2.apply(results);
+    }
+
+    private int partitionSize() {
+        final double cost = elementNanos;
+        return adaptive && cost > 0 ? (int) Math.max(1, Math.min(Integer.MAX_VALUE, MIN_PARTITION_NANOS / cost))
+                : minPartitionSize;
+    }
+
+    // cost of element is moving average of partitions, lost concurrent updates only slow adaptation
+    private <T, R> Function<List<T>, R> measured(final Function<List<T>, R> f) {
+        return partition -> {
+            final long start = System.nanoTime();
+            final R result = f.apply(partition);
+            if (!partition.isEmpty()) {
+                final double cost = (double) (System.nanoTime() - start) / partition.size();
+                final double old = elementNanos;
+                elementNanos = old == 0 ? cost : old + (cost - old) * COST_WEIGHT;
+            }
+            return result;
+        };
     }
 
     /**
@@ -147,8 +275,21 @@ public class IterativeParallelism implements NewScalarIP {
      */
     @Override
     public <T> boolean all(int threads, List<? extends T> values, Predicate<? super T> predicate, int step) throws InterruptedException {
-        return opAbstract(threads, values, list -> list.stream().allMatch(predicate),
-                list -> list.stream().reduce(true, (o1, o2) -> o1 & o2), step);
+        // shared between partitions: once one of them meets a counterexample, the others stop scanning
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        return opAbstract(threads, values, list -> {
+            for (final T el : list) {
+                if (failed.get()) {
+                    return false;
+                }
+                if (!predicate.test(el)) {
+                    failed.set(true);
+                    return false;
+                }
+            }
+            return true;
+        }, list -> !failed.get(), step, failed::get);
     }
 
     /**
@@ -185,4 +326,135 @@ public class IterativeParallelism implements NewScalarIP {
         return opAbstract(threads, values, list -> list.stream().filter(predicate).mapToInt(o -> 1).sum(),
                 list -> list.stream().reduce(0, Integer::sum), step);
     }
+
+    /**
+     * Join string representations of {@code values}
+     *
+     * @param threads number of concurrent threads.
+     * @param values values to join.
+     * @param step step size.
+     * @return concatenation of {@link String#valueOf(Object)} of {@code values}
+     * @throws InterruptedException if {@link Thread#join()} throw this
+     * @throws IllegalArgumentException if {@code threads} not positive
+     */
+    public String join(int threads, List<?> values, int step) throws InterruptedException {
+        return opAbstract(threads, values, list -> list.stream().map(String::valueOf).collect(Collectors.joining()),
+                list -> String.join("", list), step);
+    }
+
+    /**
+     * Filter {@code values} by {@code predicate}
+     *
+     * @param threads number of concurrent threads.
+     * @param values values to filter.
+     * @param predicate filter predicate.
+     * @param step step size.
+     * @return {@link List} of elements with truthful {@code predicate} in {@code values}, in original order
+     * @param <T> type of {@code values}
+     * @throws InterruptedException if {@link Thread#join()} throw this
+     * @throws IllegalArgumentException if {@code threads} not positive
+     */
+    public <T> List<T> filter(int threads, List<? extends T> values, Predicate<? super T> predicate, int step)
+            throws InterruptedException {
+        return this.<T, List<T>>opAbstract(threads, values, list -> list.stream().filter(predicate).toList(),
+                IterativeParallelism::concat, step);
+    }
+
+    /**
+     * Apply {@code f} on elements in {@code values}
+     *
+     * @param threads number of concurrent threads.
+     * @param values values to map.
+     * @param f mapper function.
+     * @param step step size.
+     * @return {@link List} of applying {@code f} on elements from {@code values}, in original order
+     * @param <T> type of {@code values}
+     * @param <U> result list type
+     * @throws InterruptedException if {@link Thread#join()} throw this
+     * @throws IllegalArgumentException if {@code threads} not positive
+     */
+    public <T, U> List<U> map(int threads, List<? extends T> values, Function<? super T, ? extends U> f, int step)
+            throws InterruptedException {
+        return opAbstract(threads, values, list -> list.stream().<U>map(f).toList(),
+                IterativeParallelism::concat, step);
+    }
+
+    /**
+     * Reduce {@code values} with {@code monoid}
+     *
+     * @param threads number of concurrent threads.
+     * @param values values to reduce.
+     * @param monoid associative operation with identity.
+     * @param step step size.
+     * @return reduction of {@code values}, {@link Monoid#identity()} if there are no values
+     * @param <T> type of {@code values}
+     * @throws InterruptedException if {@link Thread#join()} throw this
+     * @throws IllegalArgumentException if {@code threads} not positive
+     */
+    public <T> T reduce(int threads, List<T> values, Monoid<T> monoid, int step) throws InterruptedException {
+        return mapReduce(threads, values, Function.identity(), monoid, step);
+    }
+
+    /**
+     * Reduce results of {@code lift} on {@code values} with {@code monoid}
+     *
+     * @param threads number of concurrent threads.
+     * @param values values to reduce.
+     * @param lift mapper function.
+     * @param monoid associative operation with identity.
+     * @param step step size.
+     * @return reduction of mapped {@code values}, {@link Monoid#identity()} if there are no values
+     * @param <T> type of {@code values}
+     * @param <R> result type
+     * @throws InterruptedException if {@link Thread#join()} throw this
+     * @throws IllegalArgumentException if {@code threads} not positive
+     */
+    public <T, R> R mapReduce(int threads, List<T> values, Function<T, R> lift, Monoid<R> monoid, int step)
+            throws InterruptedException {
+        return opAbstract(threads, values, list -> list.stream().map(lift).reduce(monoid.identity(), monoid.operator()),
+                list -> list.stream().reduce(monoid.identity(), monoid.operator()), step);
+    }
+
+    /**
+     * Sum {@code mapper} results on {@code values}
+     *
+     * @param threads number of concurrent threads.
+     * @param values values to sum.
+     * @param mapper mapper to {@code int}.
+     * @param step step size.
+     * @return sum of {@code mapper} on {@code values}
+     * @param <T> type of {@code values}
+     * @throws InterruptedException if {@link Thread#join()} throw this
+     * @throws IllegalArgumentException if {@code threads} not positive
+     */
+    public <T> long sum(int threads, List<? extends T> values, ToIntFunction<? super T> mapper, int step)
+            throws InterruptedException {
+        return opAbstract(threads, values, list -> list.stream().mapToLong(mapper::applyAsInt).sum(),
+                list -> list.stream().mapToLong(Long::longValue).sum(), step);
+    }
+
+    /**
+     * Average of {@code mapper} results on {@code values}
+     *
+     * @param threads number of concurrent threads.
+     * @param values values to average.
+     * @param mapper mapper to {@code int}.
+     * @param step step size.
+     * @return average of {@code mapper} on {@code values}, empty if there are no values
+     * @param <T> type of {@code values}
+     * @throws InterruptedException if {@link Thread#join()} throw this
+     * @throws IllegalArgumentException if {@code threads} not positive
+     */
+    public <T> OptionalDouble average(int threads, List<? extends T> values, ToIntFunction<? super T> mapper, int step)
+            throws InterruptedException {
+        final long sum = sum(threads, values, mapper, step);
+        final int count = (values.size() + step - 1) / step;
+        return count == 0 ? OptionalDouble.empty() : OptionalDouble.of((double) sum / count);
+    }
+
+    private static <T> List<T> concat(final List<List<T>> lists) {
+        final List<T> result = new ArrayList<>(lists.stream().mapToInt(List::size).sum());
+        lists.forEach(result::addAll);
+        return result;
+    }
 }
@@ -0,0 +1,41 @@
+package info.kgeorgiy.ja.televnoi.iterative;
+
+/**
+ * Listener of {@link ParallelMapperImpl} task events, called on working threads and on {@code map} callers
+ *
+ * @author Artem Televnoy
+ */
+public interface MapperListener {
+    /**
+     * Listener which ignores all events
+     */
+    MapperListener NONE = new MapperListener() {
+    };
+
+    /**
+     * Called after count of tasks waiting in queue changed and queue lock was released.
+     * Calls from different threads may come not in order of changes, but sum of changes is count of waiting tasks
+     *
+     * @param delta change of count of tasks waiting in queue, negative when tasks are taken or dropped
+     */
+    default void queueDepthChanged(final int delta) {
+    }
+
+    /**
+     * Called before task is run by worker
+     *
+     * @param worker index of worker thread
+     * @param waitNanos time from queueing to start of task
+     */
+    default void taskStarted(final int worker, final long waitNanos) {
+    }
+
+    /**
+     * Called after task was run by worker
+     *
+     * @param worker index of worker thread
+     * @param runNanos time of task running
+     */
+    default void taskFinished(final int worker, final long runNanos) {
+    }
+}
@@ -0,0 +1,111 @@
+package info.kgeorgiy.ja.televnoi.iterative;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link MapperListener} which collects queue depth, wait and run time histograms,
+ * worker utilization and throughput of {@link ParallelMapperImpl}
+ *
+ * @author Artem Televnoy
+ */
+public class MapperMetrics implements MapperListener {
+    private final long startTime = System.nanoTime();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final LatencyHistogram runTimes = new LatencyHistogram();
+    private final Map<Integer, LongAdder> busyTimes = new ConcurrentHashMap<>();
+
+    /**
+     * Default constructor
+     */
+    public MapperMetrics() {
+    }
+
+    @Override
+    public void queueDepthChanged(final int delta) {
+        final int depth = queueDepth.addAndGet(delta);
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    @Override
+    public void taskStarted(final int worker, final long waitNanos) {
+        waitTimes.record(waitNanos);
+    }
+
+    @Override
+    public void taskFinished(final int worker, final long runNanos) {
+        runTimes.record(runNanos);
+        busyTimes.computeIfAbsent(worker, w -> new LongAdder()).add(runNanos);
+    }
+
+    /**
+     * Count of tasks waiting in queue
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Greatest observed count of tasks waiting in queue
+     *
+     * @return max queue depth
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Histogram of time from queueing to start of task
+     *
+     * @return wait time histogram
+     */
+    public LatencyHistogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    /**
+     * Histogram of task running time
+     *
+     * @return run time histogram
+     */
+    public LatencyHistogram getRunTimes() {
+        return runTimes;
+    }
+
+    /**
+     * Part of time since creation of metrics which {@code worker} spent running tasks
+     *
+     * @param worker index of worker thread
+     * @return busy ratio from {@code 0} to {@code 1}
+     */
+    public double getBusyRatio(final int worker) {
+        final LongAdder busy = busyTimes.get(worker);
+        return busy == null ? 0 : Math.min(1, (double) busy.sum() / Math.max(1, System.nanoTime() - startTime));
+    }
+
+    /**
+     * Finished tasks per second since creation of metrics
+     *
+     * @return throughput
+     */
+    public double getTasksPerSecond() {
+        return runTimes.getCount() * 1e9 / Math.max(1, System.nanoTime() - startTime);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(String.format(
+                "queue depth: %d (max %d), tasks/s: %.1f%nwait ns: %s%nrun ns: %s%n",
+                getQueueDepth(), getMaxQueueDepth(), getTasksPerSecond(), waitTimes, runTimes));
+        busyTimes.keySet().stream().sorted().forEach(worker ->
+                sb.append(String.format("worker %d busy: %.3f%n", worker, getBusyRatio(worker))));
+        return sb.toString();
+    }
+}
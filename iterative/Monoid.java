@@ -0,0 +1,14 @@
+package info.kgeorgiy.ja.televnoi.iterative;
+
+import java.util.function.BinaryOperator;
+
+/**
+ * Associative operation with identity element, used for parallel reductions
+ *
+ * @param identity identity element of {@code operator}
+ * @param operator associative binary operation
+ * @param <T> type of elements
+ * @author Artem Televnoy
+ */
+public record Monoid<T>(T identity, BinaryOperator<T> operator) {
+}
@@ -3,17 +3,31 @@ package info.kgeorgiy.ja.televnoi.iterative;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 
 /**
- * Class with method {@link ParallelMapper#map}, base on parallel threads working
+ * Class with method {@link ParallelMapper#map}, base on parallel threads working.
+ * Concurrent {@link #map} calls are served round-robin, one task per call in turn,
+ * calls with higher priority are served first
  *
  * @author Artem Televnoy
  */
 @SuppressWarnings("unused")
 public class ParallelMapperImpl implements ParallelMapper {
+    /**
+     * Priority of {@link #map(Function, List)} calls
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
     private final List<Thread> threadList;
-    private final Queue<Runnable> queue;
+    private final MapperListener listener;
+    // priority -> calls with pending tasks, highest priority first
+    private final NavigableMap<Integer, Queue<Job<?, ?>>> queue;
+    private int queueDepth;
+    private boolean closed;
 
     /**
      * Constructor
@@ -22,27 +36,50 @@ public class ParallelMapperImpl implements ParallelMapper {
      * @throws IllegalArgumentException if {@code threads} not positive
      */
     public ParallelMapperImpl(final int threads) {
+        this(threads, MapperListener.NONE);
+    }
+
+    /**
+     * Constructor with instrumentation
+     *
+     * @param threads count of working threads
+     * @param listener {@link MapperListener} of task events, for example {@link MapperMetrics}
+     * @throws IllegalArgumentException if {@code threads} not positive
+     * @throws NullPointerException if {@code listener} was null
+     */
+    public ParallelMapperImpl(final int threads, final MapperListener listener) {
         if (threads <= 0) {
             throw new IllegalArgumentException("threads must be positive");
         }
 
+        this.listener = Objects.requireNonNull(listener, "listener must be non null");
         threadList = new ArrayList<>();
-        queue = new LinkedList<>();
+        queue = new TreeMap<>(Comparator.reverseOrder());
 
         for (int i = 0; i < threads; i++) {
+            final int worker = i;
             final Thread thread = new Thread(() -> {
                 try {
                     while (!Thread.currentThread().isInterrupted()) {
-                        Runnable q;
+                        final Polled polled;
+                        final int delta;
                         synchronized (queue) {
                             while (queue.isEmpty()) {
                                 queue.wait();
                             }
-
-                            q = queue.poll();
+                            final int before = queueDepth;
+                            polled = pollTask();
+                            delta = queueDepth - before;
                         }
 
-                        q.run();
+                        // listener is called without queue lock, so slow listener doesn't stop other threads
+                        listener.queueDepthChanged(delta);
+                        if (polled != null) {
+                            listener.taskStarted(worker, polled.waitNanos);
+                            final long start = System.nanoTime();
+                            polled.task.run();
+                            listener.taskFinished(worker, System.nanoTime() - start);
+                        }
                     }
                 } catch (InterruptedException ignored) {}
             });
@@ -52,18 +89,137 @@ public class ParallelMapperImpl implements ParallelMapper {
         }
     }
 
-    private static class ResList<T> {
+    private record Polled(Runnable task, long waitNanos) {
+    }
+
+    // tasks of cancelled calls are dropped, null is returned if there are no other tasks
+    private Polled pollTask() {
+        while (!queue.isEmpty()) {
+            final Map.Entry<Integer, Queue<Job<?, ?>>> level = queue.firstEntry();
+            final Job<?, ?> job = level.getValue().remove();
+
+            final int remaining = job.items.size() - job.next;
+            final Runnable task = job.nextTask();
+            queueDepth -= task == null ? remaining : 1;
+            if (job.hasNext()) {
+                level.getValue().add(job);
+            }
+            if (level.getValue().isEmpty()) {
+                queue.remove(level.getKey());
+            }
+
+            if (task != null) {
+                return new Polled(task, System.nanoTime() - job.queuedTime);
+            }
+        }
+        return null;
+    }
+
+    private interface Sink<R> {
+        void addRes(int index, R value);
+
+        void fail(RuntimeException e);
+
+        void drop(int count);
+    }
+
+    private static class Job<T, R> {
+        private final Function<? super T, ? extends R> f;
+        private final List<? extends T> items;
+        private final BooleanSupplier cancelled;
+        private final Sink<R> sink;
+        private final long queuedTime;
+        private int next;
+
+        public Job(final Function<? super T, ? extends R> f, final List<? extends T> items,
+                   final BooleanSupplier cancelled, final Sink<R> sink) {
+            this.f = f;
+            this.items = items;
+            this.cancelled = cancelled;
+            this.sink = sink;
+            queuedTime = System.nanoTime();
+        }
+
+        private boolean hasNext() {
+            return next < items.size();
+        }
+
+        // tasks which weren't taken fail together
+        private void fail(final RuntimeException e) {
+            final int rest = items.size() - next;
+            next = items.size();
+            sink.fail(e);
+            if (rest > 1) {
+                sink.drop(rest - 1);
+            }
+        }
+
+        private Runnable nextTask() {
+            if (cancelled.getAsBoolean()) {
+                sink.drop(items.size() - next);
+                next = items.size();
+                return null;
+            }
+
+            final int index = next++;
+            return () -> {
+                if (cancelled.getAsBoolean()) {
+                    sink.drop(1);
+                    return;
+                }
+
+                final R value;
+                try {
+                    value = f.apply(items.get(index));
+                } catch (RuntimeException e) {
+                    sink.fail(e);
+                    return;
+                }
+                sink.addRes(index, value);
+            };
+        }
+    }
+
+    private static class ResList<T> implements Sink<T> {
         private final List<T> res;
+        private final CompletableFuture<List<T>> future;
+        private RuntimeException error;
         private int size;
 
         public ResList(final int size) {
             res = new ArrayList<>(Collections.nCopies(size, null));
+            future = new CompletableFuture<>();
             this.size = size;
+            if (size == 0) {
+                future.complete(res);
+            }
         }
 
-        synchronized private void addRes(final int index, final T value) {
+        @Override
+        synchronized public void addRes(final int index, final T value) {
             res.set(index, value);
-            if (--size == 0) {
+            drop(1);
+        }
+
+        @Override
+        synchronized public void fail(final RuntimeException e) {
+            if (error == null) {
+                error = e;
+            } else {
+                error.addSuppressed(e);
+            }
+            drop(1);
+        }
+
+        @Override
+        synchronized public void drop(final int count) {
+            size -= count;
+            if (size == 0) {
+                if (error == null) {
+                    future.complete(res);
+                } else {
+                    future.completeExceptionally(error);
+                }
                 notify();
             }
         }
@@ -72,10 +228,103 @@ public class ParallelMapperImpl implements ParallelMapper {
             while (size > 0) {
                 wait();
             }
+            if (error != null) {
+                throw error;
+            }
             return res;
         }
     }
 
+    private class MapSubscription<T, R> implements Flow.Subscription, Sink<R> {
+        private final Flow.Subscriber<? super R> subscriber;
+        private final Function<? super T, ? extends R> f;
+        private final List<? extends T> items;
+        private volatile boolean cancelled;
+        private int requested;
+        private int done;
+
+        public MapSubscription(final Flow.Subscriber<? super R> subscriber,
+                               final Function<? super T, ? extends R> f, final List<? extends T> items) {
+            this.subscriber = subscriber;
+            this.f = f;
+            this.items = items;
+        }
+
+        @Override
+        public synchronized void request(final long n) {
+            if (cancelled) {
+                return;
+            } else if (n <= 0) {
+                fail(new IllegalArgumentException("requested count must be positive"));
+                return;
+            }
+
+            // only requested items are queued, so results never outrun the subscriber
+            final int from = requested;
+            requested += (int) Math.min(n, items.size() - requested);
+            if (from < requested) {
+                try {
+                    enqueue(new Job<>(f, items.subList(from, requested), () -> cancelled, this), DEFAULT_PRIORITY);
+                } catch (IllegalStateException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public synchronized void addRes(final int index, final R value) {
+            if (!cancelled) {
+                subscriber.onNext(value);
+                complete(1);
+            }
+        }
+
+        @Override
+        public synchronized void fail(final RuntimeException e) {
+            if (!cancelled) {
+                cancelled = true;
+                subscriber.onError(e);
+            }
+        }
+
+        @Override
+        public void drop(final int count) {
+            // tasks are dropped only after cancel, when nothing is signalled anymore
+        }
+
+        private synchronized void complete(final int count) {
+            done += count;
+            if (done == items.size() && !cancelled) {
+                cancelled = true;
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    private void enqueue(final Job<?, ?> job, final int priority) {
+        if (threadList.isEmpty()) {
+            throw new IllegalStateException("incorrect operation, threads was already closed");
+        }
+
+        if (job.hasNext()) {
+            synchronized (queue) {
+                // close() fails jobs which are in queue when it's closed, later jobs aren't taken
+                if (closed) {
+                    throw new IllegalStateException("incorrect operation, threads was already closed");
+                }
+                queue.computeIfAbsent(priority, p -> new ArrayDeque<>()).add(job);
+                queueDepth += job.items.size();
+                queue.notifyAll();
+            }
+            listener.queueDepthChanged(job.items.size());
+        }
+    }
+
     /**
      * Apply {@code f} on elements in {@code items}
      *
@@ -89,25 +338,105 @@ public class ParallelMapperImpl implements ParallelMapper {
      */
     @Override
     public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> items) throws InterruptedException {
-        if (threadList.isEmpty()) {
-            throw new IllegalStateException("incorrect operation, threads was already closed");
-        }
+        return map(f, items, DEFAULT_PRIORITY);
+    }
 
-        final ResList<R> resList = new ResList<>(items.size());
+    /**
+     * Apply {@code f} on elements in {@code items}, tasks of calls with greater {@code priority} are run first
+     *
+     * @param f {@link Function} for applying elements in {@code items}
+     * @param items {@link List} of elements
+     * @param priority priority of this call, {@link #DEFAULT_PRIORITY} for {@link #map(Function, List)}
+     * @return {@link List} of applying {@code f} on elements from {@code items}
+     * @param <T> {@code items} type
+     * @param <R> result list type
+     * @throws InterruptedException if {@link Object#wait()} throw this
+     * @throws IllegalStateException if all threads was already closed
+     */
+    public <T, R> List<R> map(final Function<? super T, ? extends R> f, final List<? extends T> items,
+                              final int priority) throws InterruptedException {
+        return map(f, items, priority, () -> false);
+    }
 
-        for (int i = 0; i < items.size(); i++) {
-            final int index = i;
-            synchronized (queue) {
-                queue.add(() -> resList.addRes(index, f.apply(items.get(index))));
-                queue.notify();
-            }
-        }
+    /**
+     * Apply {@code f} on elements in {@code items}, dropping tasks which weren't started before {@code cancelled}
+     *
+     * @param f {@link Function} for applying elements in {@code items}
+     * @param items {@link List} of elements
+     * @param cancelled checked by every task before applying {@code f}
+     * @return {@link List} of applying {@code f} on elements from {@code items},
+     * {@code null} on positions of dropped tasks
+     * @param <T> {@code items} type
+     * @param <R> result list type
+     * @throws InterruptedException if {@link Object#wait()} throw this
+     * @throws IllegalStateException if all threads was already closed
+     */
+    public <T, R> List<R> map(final Function<? super T, ? extends R> f, final List<? extends T> items,
+                              final BooleanSupplier cancelled) throws InterruptedException {
+        return map(f, items, DEFAULT_PRIORITY, cancelled);
+    }
 
+    /**
+     * Apply {@code f} on elements in {@code items} with {@code priority}, dropping tasks
+     * which weren't started before {@code cancelled}
+     *
+     * @param f {@link Function} for applying elements in {@code items}
+     * @param items {@link List} of elements
+     * @param priority priority of this call, {@link #DEFAULT_PRIORITY} for {@link #map(Function, List)}
+     * @param cancelled checked by every task before applying {@code f}
+     * @return {@link List} of applying {@code f} on elements from {@code items},
+     * {@code null} on positions of dropped tasks
+     * @param <T> {@code items} type
+     * @param <R> result list type
+     * @throws InterruptedException if {@link Object#wait()} throw this
+     * @throws IllegalStateException if all threads was already closed
+     */
+    public <T, R> List<R> map(final Function<? super T, ? extends R> f, final List<? extends T> items,
+                              final int priority, final BooleanSupplier cancelled) throws InterruptedException {
+        final ResList<R> resList = new ResList<>(items.size());
+        enqueue(new Job<>(f, items, cancelled, resList), priority);
         return resList.get();
     }
 
     /**
-     * Close all threads
+     * Apply {@code f} on elements in {@code items} without waiting for results
+     *
+     * @param f {@link Function} for applying elements in {@code items}
+     * @param items {@link List} of elements
+     * @return {@link CompletableFuture} of {@link List} of applying {@code f} on elements from {@code items},
+     * completed exceptionally if {@code f} throws
+     * @param <T> {@code items} type
+     * @param <R> result list type
+     * @throws IllegalStateException if all threads was already closed
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(final Function<? super T, ? extends R> f,
+                                                      final List<? extends T> items) {
+        final ResList<R> resList = new ResList<>(items.size());
+        enqueue(new Job<>(f, items, () -> false, resList), DEFAULT_PRIORITY);
+        return resList.future;
+    }
+
+    /**
+     * Publisher of applying {@code f} on elements in {@code items}, every subscriber starts its own applying.
+     * Results are published in order of completion, elements are taken to work only on subscriber's request
+     *
+     * @param f {@link Function} for applying elements in {@code items}
+     * @param items {@link List} of elements
+     * @return {@link Flow.Publisher} of applying {@code f} on elements from {@code items}
+     * @param <T> {@code items} type
+     * @param <R> result type
+     */
+    public <T, R> Flow.Publisher<R> mapPublisher(final Function<? super T, ? extends R> f,
+                                                 final List<? extends T> items) {
+        return subscriber -> {
+            final MapSubscription<T, R> subscription = new MapSubscription<>(subscriber, f, items);
+            subscriber.onSubscribe(subscription);
+            subscription.complete(0);
+        };
+    }
+
+    /**
+     * Close all threads, calls which tasks weren't taken fail with {@link IllegalStateException}
      *
      * @throws IllegalStateException if all threads was already closed
      */
@@ -124,7 +453,17 @@ public class ParallelMapperImpl implements ParallelMapper {
             } catch (InterruptedException ignored) {}
         });
 
-        queue.clear();
+        final int dropped;
+        final List<Job<?, ?>> rest = new ArrayList<>();
+        synchronized (queue) {
+            closed = true;
+            queue.values().forEach(rest::addAll);
+            queue.clear();
+            dropped = queueDepth;
+            queueDepth = 0;
+        }
+        listener.queueDepthChanged(-dropped);
+        rest.forEach(job -> job.fail(new IllegalStateException("mapper was closed")));
         threadList.clear();
     }
 }
@@ -0,0 +1,366 @@
+package info.kgeorgiy.ja.televnoi.iterative;
+
+import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Class with method {@link ParallelMapper#map}, base on local worker processes.
+ * Items are sent to workers in batches over loopback sockets, batches of crashed workers are resubmitted.
+ * Worker is accepted only if it sends random token of this mapper, which is written to standard input
+ * of worker and isn't shown in process list, so objects aren't read from connections of other local processes.
+ * Functions run in workers, but results of call are collected in memory of calling process
+ *
+ * @author Artem Televnoy
+ */
+@SuppressWarnings("unused")
+public class ProcessParallelMapper implements ParallelMapper {
+    /**
+     * Count of items sent to worker at once by default
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int CONNECT_TIMEOUT = 30_000;
+    private static final int TOKEN_BYTES = 32;
+    private static final int TOKEN_TIMEOUT = 5_000;
+
+    private final int batchSize;
+    private final ServerSocket serverSocket;
+    private final BlockingQueue<Batch<?, ?>> batches;
+    private final List<Thread> handlers;
+    private final Set<Process> processes;
+    private final String token;
+    private volatile boolean closed;
+
+    /**
+     * Constructor
+     *
+     * @param workers count of worker processes
+     * @throws IllegalArgumentException if {@code workers} not positive
+     * @throws UncheckedIOException if coordinator socket couldn't be opened
+     */
+    public ProcessParallelMapper(final int workers) {
+        this(workers, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor with batch size
+     *
+     * @param workers count of worker processes
+     * @param batchSize count of items sent to worker at once
+     * @throws IllegalArgumentException if {@code workers} or {@code batchSize} not positive
+     * @throws UncheckedIOException if coordinator socket couldn't be opened
+     */
+    public ProcessParallelMapper(final int workers, final int batchSize) {
+        if (workers <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("workers and batchSize must be positive");
+        }
+
+        this.batchSize = batchSize;
+        final byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        token = HexFormat.of().formatHex(random);
+        try {
+            serverSocket = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+            serverSocket.setSoTimeout(CONNECT_TIMEOUT);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't open coordinator socket", e);
+        }
+
+        batches = new LinkedBlockingQueue<>();
+        handlers = new ArrayList<>();
+        processes = Collections.synchronizedSet(new HashSet<>());
+
+        // worker processes are started lazily by their handlers
+        for (int i = 0; i < workers; i++) {
+            final Thread thread = new Thread(this::handle);
+            handlers.add(thread);
+            thread.start();
+        }
+    }
+
+    private record Worker(Process process, Socket socket, ObjectOutputStream out, ObjectInputStream in) {
+    }
+
+    private record Batch<T, R>(Function<? super T, ? extends R> f, List<? extends T> items,
+                               int offset, Call<R> call, int attempts) {
+        private Batch<T, R> retry() {
+            return new Batch<>(f, items, offset, call, attempts + 1);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void runOn(final Worker worker) throws IOException, ClassNotFoundException {
+            worker.out.writeObject(f);
+            worker.out.writeObject(new ArrayList<>(items));
+            worker.out.reset();
+            worker.out.flush();
+
+            final Object response = worker.in.readObject();
+            if (response instanceof RuntimeException e) {
+                call.fail(e);
+            } else {
+                call.complete(offset, (List<R>) response);
+            }
+        }
+    }
+
+    private static class Call<R> {
+        private final List<R> res;
+        private RuntimeException error;
+        private int size;
+
+        public Call(final int size) {
+            res = new ArrayList<>(Collections.nCopies(size, null));
+            this.size = size;
+        }
+
+        synchronized private void complete(final int offset, final List<R> values) {
+            for (int i = 0; i < values.size(); i++) {
+                res.set(offset + i, values.get(i));
+            }
+            size -= values.size();
+            notify();
+        }
+
+        synchronized private void fail(final RuntimeException e) {
+            if (error == null) {
+                error = e;
+                notify();
+            }
+        }
+
+        synchronized private boolean isDone() {
+            return size == 0 || error != null;
+        }
+
+        synchronized private List<R> get() throws InterruptedException {
+            while (!isDone()) {
+                wait();
+            }
+            if (error != null) {
+                throw error;
+            }
+            return res;
+        }
+    }
+
+    private void handle() {
+        Worker worker = null;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Batch<?, ?> batch = batches.take();
+                if (batch.call.isDone()) {
+                    continue;
+                }
+
+                try {
+                    if (worker == null) {
+                        worker = spawn();
+                    }
+                    batch.runOn(worker);
+                } catch (NotSerializableException e) {
+                    worker = kill(worker);
+                    batch.call.fail(new IllegalArgumentException("Items must be serializable", e));
+                } catch (IOException | ClassNotFoundException e) {
+                    worker = kill(worker);
+                    if (closed) {
+                        batch.call.fail(new IllegalStateException("mapper was closed"));
+                    } else if (batch.attempts + 1 >= MAX_ATTEMPTS) {
+                        batch.call.fail(new IllegalStateException("Worker process failed on batch", e));
+                    } else {
+                        batches.add(batch.retry());
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            kill(worker);
+        }
+    }
+
+    private Worker spawn() throws IOException {
+        // one spawn at a time, so accepted connection belongs to started process
+        synchronized (serverSocket) {
+            final Process process = new ProcessBuilder(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"),
+                    ProcessParallelMapper.class.getName(),
+                    Integer.toString(serverSocket.getLocalPort())
+            ).redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            processes.add(process);
+
+            try {
+                try (OutputStream stdin = process.getOutputStream()) {
+                    stdin.write((token + System.lineSeparator()).getBytes(StandardCharsets.US_ASCII));
+                }
+                final Socket socket = acceptWorker();
+                final ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+                out.flush();
+                return new Worker(process, socket, out, new ObjectInputStream(socket.getInputStream()));
+            } catch (IOException e) {
+                process.destroyForcibly();
+                processes.remove(process);
+                throw e;
+            }
+        }
+    }
+
+    // connections without token are closed before any object is read from them
+    private Socket acceptWorker() throws IOException {
+        final byte[] expected = token.getBytes(StandardCharsets.US_ASCII);
+        while (true) {
+            final Socket socket = serverSocket.accept();
+            try {
+                socket.setSoTimeout(TOKEN_TIMEOUT);
+                final byte[] received = socket.getInputStream().readNBytes(expected.length);
+                if (MessageDigest.isEqual(expected, received)) {
+                    socket.setSoTimeout(0);
+                    return socket;
+                }
+            } catch (IOException ignored) {
+            }
+            socket.close();
+        }
+    }
+
+    private Worker kill(final Worker worker) {
+        if (worker != null) {
+            try {
+                worker.socket.close();
+            } catch (IOException ignored) {}
+            worker.process.destroyForcibly();
+            processes.remove(worker.process);
+        }
+        return null;
+    }
+
+    /**
+     * Apply {@code f} on elements in {@code items} in worker processes
+     *
+     * @param f {@link Function} for applying elements in {@code items}, must be {@link Serializable}
+     * @param items {@link List} of {@link Serializable} elements
+     * @return {@link List} of applying {@code f} on elements from {@code items}
+     * @param <T> {@code items} type
+     * @param <R> result list type
+     * @throws InterruptedException if {@link Object#wait()} throw this
+     * @throws IllegalArgumentException if {@code f} or {@code items} aren't serializable
+     * @throws IllegalStateException if mapper was already closed or worker processes repeatedly failed on batch
+     */
+    @Override
+    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> items) throws InterruptedException {
+        if (!(f instanceof Serializable)) {
+            throw new IllegalArgumentException("Function must be serializable");
+        }
+
+        final Call<R> call = new Call<>(items.size());
+        // close() marks mapper closed under the same lock, so batches aren't added after it
+        synchronized (batches) {
+            if (closed) {
+                throw new IllegalStateException("incorrect operation, mapper was already closed");
+            }
+            for (int from = 0; from < items.size(); from += batchSize) {
+                batches.add(new Batch<>(f, items.subList(from, Math.min(from + batchSize, items.size())), from, call, 0));
+            }
+        }
+
+        return call.get();
+    }
+
+    /**
+     * Stop worker processes
+     *
+     * @throws IllegalStateException if mapper was already closed
+     */
+    @Override
+    public void close() {
+        synchronized (batches) {
+            if (closed) {
+                throw new IllegalStateException("mapper was already closed");
+            }
+            closed = true;
+        }
+
+        handlers.forEach(Thread::interrupt);
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {}
+        synchronized (processes) {
+            processes.forEach(Process::destroyForcibly);
+        }
+        handlers.forEach(o -> {
+            try {
+                o.join();
+            } catch (InterruptedException ignored) {}
+        });
+
+        final List<Batch<?, ?>> rest = new ArrayList<>();
+        batches.drainTo(rest);
+        rest.forEach(batch -> batch.call.fail(new IllegalStateException("mapper was closed")));
+    }
+
+    /**
+     * Main method of worker process
+     *
+     * @param args format: {@code port} of coordinator on loopback; token of coordinator is read from standard input
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length != 1) {
+            System.err.println("Invalid arguments: must be coordinator port");
+            return;
+        }
+
+        try {
+            final String token = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII)).readLine();
+            if (token == null) {
+                System.err.println("Worker failed: token of coordinator wasn't passed");
+                return;
+            }
+            work(Integer.parseInt(args[0]), token);
+        } catch (IOException | ClassNotFoundException | NumberFormatException e) {
+            System.err.println("Worker failed: " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void work(final int port, final String token) throws IOException, ClassNotFoundException {
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.getOutputStream().write(token.getBytes(StandardCharsets.US_ASCII));
+            final ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            out.flush();
+            final ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+
+            while (true) {
+                final Function<Object, Object> f = (Function<Object, Object>) in.readObject();
+                final List<?> items = (List<?>) in.readObject();
+
+                Object response;
+                try {
+                    final List<Object> results = new ArrayList<>();
+                    for (final Object item : items) {
+                        results.add(f.apply(item));
+                    }
+                    response = results;
+                } catch (RuntimeException e) {
+                    response = e;
+                }
+
+                out.writeObject(response);
+                out.reset();
+                out.flush();
+            }
+        } catch (EOFException ignored) {
+        }
+    }
+}